@@ -0,0 +1,72 @@
+package com.example.authdemo;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+
+/**
+ * Wires the services by hand, without a Spring context, for the benchmarks.
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    static UserRepository repository(String store) {
+        if ("jdbc".equals(store)) {
+            return new CachingUserRepository(new JdbcUserRepository(jdbcTemplate()), 100000, 500, 500);
+        }
+        return new InMemoryUserRepository();
+    }
+
+    // A fresh in-memory database per call.
+    static JdbcTemplate jdbcTemplate() {
+        return new JdbcTemplate(
+                new DriverManagerDataSource("jdbc:h2:mem:bench" + System.nanoTime() + ";DB_CLOSE_DELAY=-1"));
+    }
+
+    // Dedup window of 1 ms so back-to-back benchmark ticks are not merged.
+    static NotifyOutbox outbox() {
+        return new NotifyOutbox(jdbcTemplate(), 6, 10000, 600000, 100000, 60000, 1, 60, 168);
+    }
+
+    static LineApiClient lineApiClient(URI base) {
+        return new LineApiClient(HttpClient.Version.HTTP_1_1, 16, 3000, 10000,
+                endpoint -> base == null
+                        ? URI.create(endpoint.getUri())
+                        : base.resolve(URI.create(endpoint.getUri()).getPath()));
+    }
+
+    // Events go nowhere; the benchmarks measure the publishing side only.
+    static UserEventBus userEvents() {
+        ApplicationEventPublisher noEvents = event -> { };
+        return new UserEventBus(noEvents, 10000);
+    }
+
+    static AppMetrics metrics(UserRepository repository, NotifyHistory history, NotifyOutbox outbox,
+                              LineApiClient lineApiClient) {
+        return new AppMetrics(new SimpleMeterRegistry(), repository, history, outbox, lineApiClient, userEvents());
+    }
+
+    static UserService userService(UserRepository repository, LineApiClient lineApiClient, AppMetrics metrics) {
+        ApplicationEventPublisher noEvents = event -> { };
+        return new UserService(repository, new TokenVerificationCache(3600, 30), noEvents, userEvents(),
+                lineApiClient, metrics);
+    }
+
+    static UserInfo user(int i) {
+        UserInfo user = new UserInfo();
+        user.setUserId(String.format("U%032x", i));
+        user.setDisplayName("User " + i);
+        user.setTokenIssuer("https://access.line.me");
+        user.setTokenType("Bearer");
+        user.setAccessToken("eyJhbGciOiJIUzI1NiJ9.access." + i);
+        user.setRefreshToken("refresh-" + i);
+        user.setBotAccessToken("bot-" + i);
+        return user;
+    }
+}
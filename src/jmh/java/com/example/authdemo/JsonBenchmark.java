@@ -0,0 +1,67 @@
+package com.example.authdemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utils.parse/stringify on payloads shaped like real LINE responses. The
+ * parse benchmarks start from UTF-8 bytes, as the HTTP body handler does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JsonBenchmark {
+
+    static final String TOKEN_RESPONSE = "{\"access_token\":\"eyJhbGciOiJIUzI1NiJ9.UnQ_o-GP0VtnwDjbK0C8E_NvK"
+            + "4HhM4D0QBPYRBdLXp1mgzDgR1hxcNjMuVRw4LNp5u2v0gPTG6OJ2blQ1Bos2-4zrQA2rsGJuZxHRaxCwP-Z0HgpdE"
+            + "xA3AJ0PDMCFCamBAc5sQbvkwJ0bL3fVaCkO9kT2yfHHTCC2CuXeCJa-1o\",\"expires_in\":2592000,"
+            + "\"id_token\":\"eyJ0eXAiOiJKV1QiLCJhbGciOiJIUzI1NiJ9.eyJpc3MiOiJodHRwczovL2FjY2Vzcy5saW5lLm1l"
+            + "Iiwic3ViIjoiVTEyMzQ1Njc4OTBhYmNkZWYxMjM0NTY3ODkwYWJjZGVmIiwiYXVkIjoiMTY1NzU2MTk2OSIsImV4cCI6"
+            + "MTUwNDE2OTA5MiwiaWF0IjoxNTA0MjYzNjU3LCJuYW1lIjoiVGFybyBMaW5lIn0.signature\","
+            + "\"refresh_token\":\"Aa1FdeggRhTnPNNpxr8p\",\"scope\":\"profile openid\",\"token_type\":\"Bearer\"}";
+
+    static final String PROFILE_RESPONSE = "{\"userId\":\"U4af4980629a2b3c4d5e6f7a8b9c0d1e2\","
+            + "\"displayName\":\"Taro Line\",\"pictureUrl\":\"https://profile.line-scdn.net/abcdefghijklmn\","
+            + "\"statusMessage\":\"Hello, LINE!\"}";
+
+    static final String VERIFY_RESPONSE = "{\"scope\":\"P\",\"client_id\":\"1657561969\",\"expires_in\":2591659}";
+
+    private final byte[] tokenResponse = TOKEN_RESPONSE.getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] profileResponse = PROFILE_RESPONSE.getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] verifyResponse = VERIFY_RESPONSE.getBytes(StandardCharsets.UTF_8);
+
+    private final Map<String, String> error = new HashMap<>(Map.of(
+            "error", "Not Authorized",
+            "error_description", "Login with LINE first."));
+
+    @Benchmark
+    public LineTokenResponse parseToken() throws Exception {
+        return Utils.parse(tokenResponse, LineTokenResponse.class);
+    }
+
+    @Benchmark
+    public LineProfile parseProfile() throws Exception {
+        return Utils.parse(profileResponse, LineProfile.class);
+    }
+
+    @Benchmark
+    public long parseVerify() throws Exception {
+        return Utils.parse(verifyResponse, LineVerifyResponse.class).expiresIn();
+    }
+
+    @Benchmark
+    public String stringifyError() throws Exception {
+        return Utils.stringify(error);
+    }
+}
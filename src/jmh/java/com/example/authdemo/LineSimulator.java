@@ -0,0 +1,275 @@
+package com.example.authdemo;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for api.line.me, notify-api.line.me and notify-bot.line.me,
+ * serving every endpoint in {@link LineEndpoint} on one port (their paths do
+ * not overlap). Authorization codes work once, like LINE's; ID tokens are
+ * HS256-signed with the channel secret so the app verifies them locally.
+ * Each response waits {@code latencyMs} plus up to {@code jitterMs}, and a
+ * share {@code errorRate} of calls answers 500. Notify sends are limited to
+ * {@code notifyLimit} per token per {@code notifyWindowSeconds}, with LINE's
+ * X-RateLimit headers and a 429 past the limit.
+ */
+public class LineSimulator implements AutoCloseable {
+
+    public record Settings(String clientId, String clientSecret, int latencyMs, int jitterMs, double errorRate,
+                           int notifyLimit, int notifyWindowSeconds) {
+    }
+
+    private static final Base64.Encoder BASE64_URL = Base64.getUrlEncoder().withoutPadding();
+
+    private final Settings settings;
+
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    // Codes already exchanged; a second exchange fails with invalid_grant.
+    private final Map<String, Boolean> usedCodes = new ConcurrentHashMap<>();
+
+    // Access and bot tokens to the user they were issued for.
+    private final Map<String, String> tokenOwners = new ConcurrentHashMap<>();
+
+    private final Map<String, NotifyWindow> notifyWindows = new ConcurrentHashMap<>();
+
+    private final Map<LineEndpoint, LongAdder> calls = new ConcurrentHashMap<>();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAdder throttled = new LongAdder();
+
+    public LineSimulator(Settings settings) throws IOException {
+        this.settings = settings;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+        server.setExecutor(executor);
+        for (LineEndpoint endpoint : LineEndpoint.values()) {
+            calls.put(endpoint, new LongAdder());
+            server.createContext(URI.create(endpoint.getUri()).getPath(), exchange -> handle(endpoint, exchange));
+        }
+        server.start();
+    }
+
+    public URI getBaseUri() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    public long getCalls(LineEndpoint endpoint) {
+        return calls.get(endpoint).sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    private void handle(LineEndpoint endpoint, HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Map<String, String> form = parseForm(new String(exchange.getRequestBody().readAllBytes(),
+                    StandardCharsets.UTF_8));
+            calls.get(endpoint).increment();
+            delay();
+            if (settings.errorRate() > 0 && ThreadLocalRandom.current().nextDouble() < settings.errorRate()) {
+                errors.increment();
+                respond(exchange, 500, "{\"error\":\"server_error\"}");
+                return;
+            }
+            String bearer = bearer(exchange);
+            switch (endpoint) {
+                case LOGIN_TOKEN -> loginToken(exchange, form);
+                case PROFILE -> profile(exchange, bearer);
+                case VERIFY -> verify(exchange, form);
+                case REFRESH -> refresh(exchange, form);
+                case REVOKE, NOTIFY_REVOKE -> respond(exchange, 200, "{}");
+                case JWKS -> respond(exchange, 200, "{\"keys\":[]}");
+                case NOTIFY_TOKEN -> notifyToken(exchange, form);
+                case NOTIFY -> notify(exchange, bearer);
+                case NOTIFY_STATUS -> respond(exchange, tokenOwners.containsKey(bearer) ? 200 : 401,
+                        "{\"status\":200,\"message\":\"ok\",\"targetType\":\"USER\",\"target\":\"simulated\"}");
+            }
+        }
+    }
+
+    private void loginToken(HttpExchange exchange, Map<String, String> form) throws IOException {
+        String code = form.get("code");
+        if (code == null || usedCodes.putIfAbsent(code, Boolean.TRUE) != null) {
+            respond(exchange, 400, "{\"error\":\"invalid_grant\",\"error_description\":\"code already used\"}");
+            return;
+        }
+        respond(exchange, 200, tokens(userIdFor(code), true));
+    }
+
+    private void refresh(HttpExchange exchange, Map<String, String> form) throws IOException {
+        String refreshToken = form.get("refresh_token");
+        if (refreshToken == null || !refreshToken.startsWith("refresh-")) {
+            respond(exchange, 400, "{\"error\":\"invalid_grant\",\"error_description\":\"invalid refresh token\"}");
+            return;
+        }
+        respond(exchange, 200, tokens(refreshToken.substring("refresh-".length()), false));
+    }
+
+    private void notifyToken(HttpExchange exchange, Map<String, String> form) throws IOException {
+        String code = form.get("code");
+        if (code == null || usedCodes.putIfAbsent(code, Boolean.TRUE) != null) {
+            respond(exchange, 400, "{\"status\":400,\"message\":\"code already used\"}");
+            return;
+        }
+        String token = "bot-" + code + "-" + System.nanoTime();
+        tokenOwners.put(token, code);
+        respond(exchange, 200, "{\"status\":200,\"message\":\"access_token is issued\",\"access_token\":\""
+                + token + "\"}");
+    }
+
+    private void profile(HttpExchange exchange, String bearer) throws IOException {
+        String userId = tokenOwners.get(bearer);
+        if (userId == null) {
+            respond(exchange, 401, "{\"message\":\"invalid token\"}");
+            return;
+        }
+        respond(exchange, 200, "{\"userId\":\"" + userId + "\",\"displayName\":\"Sim " + userId + "\"}");
+    }
+
+    private void verify(HttpExchange exchange, Map<String, String> form) throws IOException {
+        if (!tokenOwners.containsKey(form.get("access_token"))) {
+            respond(exchange, 400, "{\"error\":\"invalid_request\",\"error_description\":\"access token expired\"}");
+            return;
+        }
+        respond(exchange, 200, "{\"scope\":\"P\",\"client_id\":\"" + settings.clientId()
+                + "\",\"expires_in\":2591659}");
+    }
+
+    private void notify(HttpExchange exchange, String bearer) throws IOException {
+        if (!tokenOwners.containsKey(bearer)) {
+            respond(exchange, 401, "{\"status\":401,\"message\":\"Invalid access token\"}");
+            return;
+        }
+        long now = Instant.now().getEpochSecond();
+        NotifyWindow window = notifyWindows.compute(bearer, (k, w) ->
+                w == null || now >= w.resetAt ? new NotifyWindow(now + settings.notifyWindowSeconds()) : w);
+        int used = window.used.incrementAndGet();
+        int remaining = Math.max(0, settings.notifyLimit() - used);
+        exchange.getResponseHeaders().add("X-RateLimit-Limit", String.valueOf(settings.notifyLimit()));
+        exchange.getResponseHeaders().add("X-RateLimit-Remaining", String.valueOf(remaining));
+        exchange.getResponseHeaders().add("X-RateLimit-Reset", String.valueOf(window.resetAt));
+        if (used > settings.notifyLimit()) {
+            throttled.increment();
+            respond(exchange, 429, "{\"status\":429,\"message\":\"Too Many Requests\"}");
+            return;
+        }
+        respond(exchange, 200, "{\"status\":200,\"message\":\"ok\"}");
+    }
+
+    private String tokens(String userId, boolean withIdToken) {
+        String accessToken = "sim-" + userId + "-" + System.nanoTime();
+        tokenOwners.put(accessToken, userId);
+        return "{\"access_token\":\"" + accessToken + "\",\"expires_in\":2592000,"
+                + (withIdToken ? "\"id_token\":\"" + idToken(userId) + "\"," : "")
+                + "\"refresh_token\":\"refresh-" + userId + "\",\"scope\":\"profile openid\","
+                + "\"token_type\":\"Bearer\"}";
+    }
+
+    private String idToken(String userId) {
+        long now = Instant.now().getEpochSecond();
+        String header = encode("{\"typ\":\"JWT\",\"alg\":\"HS256\"}");
+        String payload = encode("{\"iss\":\"https://access.line.me\",\"sub\":\"" + userId + "\",\"aud\":\""
+                + settings.clientId() + "\",\"exp\":" + (now + 3600) + ",\"iat\":" + now
+                + ",\"name\":\"Sim " + userId + "\"}");
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(settings.clientSecret().getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            byte[] signature = mac.doFinal((header + "." + payload).getBytes(StandardCharsets.US_ASCII));
+            return header + "." + payload + "." + BASE64_URL.encodeToString(signature);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // The same code always belongs to the same user, so a repeated login finds the stored user.
+    static String userIdFor(String code) {
+        return "U" + UUID.nameUUIDFromBytes(code.getBytes(StandardCharsets.UTF_8)).toString().replace("-", "");
+    }
+
+    private void delay() {
+        int millis = settings.latencyMs()
+                + (settings.jitterMs() > 0 ? ThreadLocalRandom.current().nextInt(settings.jitterMs()) : 0);
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static String bearer(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        return authorization != null && authorization.startsWith("Bearer ") ? authorization.substring(7) : null;
+    }
+
+    private static Map<String, String> parseForm(String body) {
+        Map<String, String> form = new HashMap<>();
+        for (String pair : body.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                form.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return form;
+    }
+
+    private static String encode(String json) {
+        return BASE64_URL.encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static final class NotifyWindow {
+
+        private final long resetAt;
+
+        private final AtomicInteger used = new AtomicInteger();
+
+        NotifyWindow(long resetAt) {
+            this.resetAt = resetAt;
+        }
+    }
+}
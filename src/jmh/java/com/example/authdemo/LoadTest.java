@@ -0,0 +1,242 @@
+package com.example.authdemo;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Load test of the whole application against {@link LineSimulator}: starts
+ * both in this JVM, then drives concurrent login callbacks, LINE Notify
+ * subscriptions and notify ticks through the public endpoints, and reports
+ * p50/p99 latency and throughput per phase.
+ *
+ * <p>Run with {@code ./gradlew loadTest -PloadTestArgs="users=5000 concurrency=64"}.
+ * Arguments are {@code key=value}: users, concurrency, latency_ms, jitter_ms,
+ * error_rate, notify_limit, notify_window_s and duration_s (of the notify
+ * phase). Anything starting with {@code --} is passed on to the application.
+ */
+public class LoadTest {
+
+    private static final String CLIENT_ID = "1000000000";
+
+    private static final String CLIENT_SECRET = "load-test-secret";
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    private final URI app;
+
+    private final int concurrency;
+
+    LoadTest(URI app, int concurrency) {
+        this.app = app;
+        this.concurrency = concurrency;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        List<String> appArgs = new ArrayList<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (arg.startsWith("--")) {
+                appArgs.add(arg);
+            } else if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        int users = Integer.parseInt(options.getOrDefault("users", "1000"));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "32"));
+        int durationSeconds = Integer.parseInt(options.getOrDefault("duration_s", "30"));
+
+        LineSimulator.Settings settings = new LineSimulator.Settings(CLIENT_ID, CLIENT_SECRET,
+                Integer.parseInt(options.getOrDefault("latency_ms", "20")),
+                Integer.parseInt(options.getOrDefault("jitter_ms", "10")),
+                Double.parseDouble(options.getOrDefault("error_rate", "0")),
+                Integer.parseInt(options.getOrDefault("notify_limit", "1000")),
+                Integer.parseInt(options.getOrDefault("notify_window_s", "3600")));
+
+        try (LineSimulator simulator = new LineSimulator(settings)) {
+            String base = simulator.getBaseUri().toString();
+            List<String> springArgs = new ArrayList<>(List.of(
+                    "--server.port=0",
+                    "--line.client_id=" + CLIENT_ID,
+                    "--line.client_secret=" + CLIENT_SECRET,
+                    "--line.base_uri.api=" + base,
+                    "--line.base_uri.notify_api=" + base,
+                    "--line.base_uri.notify_bot=" + base,
+                    // The simulator speaks HTTP/1.1 only.
+                    "--line.http.version=HTTP_1_1",
+                    "--spring.datasource.url=jdbc:h2:mem:load;DB_CLOSE_DELAY=-1",
+                    "--user_store.type=memory",
+                    "--line.callback.require_state=true",
+                    "--notify.interval_ms=1000"));
+            springArgs.addAll(appArgs);
+
+            ConfigurableApplicationContext context = SpringApplication.run(AuthDemoApplication.class,
+                    springArgs.toArray(String[]::new));
+            try {
+                URI app = URI.create("http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port"));
+                new LoadTest(app, concurrency).run(users, Duration.ofSeconds(durationSeconds), simulator);
+            } finally {
+                SpringApplication.exit(context);
+            }
+        }
+    }
+
+    void run(int users, Duration notifyDuration, LineSimulator simulator) throws Exception {
+        System.out.printf("%d users, concurrency %d, app at %s%n", users, concurrency, app);
+
+        // Each simulated browser keeps its own cookies: the state nonce, then the login session.
+        Queue<String[]> sessions = new ConcurrentLinkedQueue<>();
+        report("login", drive(users, i -> {
+            HttpResponse<String> issued = get("/v1/oauth/state?flow=login", null);
+            HttpResponse<String> response = get("/v1/linecallback?code=login-" + i + "&state=" + state(issued),
+                    cookie(issued));
+            String location = response.headers().firstValue("Location").orElse("");
+            int at = location.indexOf("userid=");
+            if (response.statusCode() != 307 || at < 0) {
+                return false;
+            }
+            sessions.add(new String[] {location.substring(at + "userid=".length()), cookie(response)});
+            return true;
+        }));
+
+        List<String[]> loggedIn = new ArrayList<>(sessions);
+        report("bot subscription", drive(loggedIn.size(), i -> {
+            String[] session = loggedIn.get(i);
+            HttpResponse<String> issued = get("/v1/oauth/state?flow=bot&userId=" + session[0], session[1]);
+            return get("/v1/linebotcallback?code=bot-" + i + "&state=" + state(issued), cookie(issued))
+                    .statusCode() == 307;
+        }));
+
+        Instant notifyStart = Instant.now();
+        long notifyCallsBefore = simulator.getCalls(LineEndpoint.NOTIFY);
+        long end = System.nanoTime() + notifyDuration.toNanos();
+        Phase triggers = drive(1, i -> {
+            boolean ok = true;
+            while (System.nanoTime() < end) {
+                ok &= get("/v1/notify", null).statusCode() == 202;
+                TimeUnit.SECONDS.sleep(1);
+            }
+            return ok;
+        });
+        reportTicks(notifyStart, notifyDuration);
+        long notifyCalls = simulator.getCalls(LineEndpoint.NOTIFY) - notifyCallsBefore;
+        System.out.printf("%-18s %d trigger(s), %d upstream sends (%.1f/s), %d throttled, %d injected errors%n",
+                "notify", triggers.latencies.length, notifyCalls,
+                notifyCalls / (notifyDuration.toMillis() / 1000.0), simulator.getThrottled(), simulator.getErrors());
+    }
+
+    private static String state(HttpResponse<String> issued) throws Exception {
+        JsonNode body = Utils.parseTree(issued.body().getBytes(StandardCharsets.UTF_8));
+        return Utils.urlEncoder(body.path("state").asText());
+    }
+
+    // The name=value part of the response's cookie, to send back as a Cookie header.
+    private static String cookie(HttpResponse<String> response) {
+        String setCookie = response.headers().firstValue("Set-Cookie").orElse("");
+        int end = setCookie.indexOf(';');
+        return end < 0 ? setCookie : setCookie.substring(0, end);
+    }
+
+    private HttpResponse<String> get(String path, String cookie) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(app.resolve(path))
+                .timeout(Duration.ofSeconds(30))
+                .GET();
+        if (cookie != null && !cookie.isEmpty()) {
+            request.header("Cookie", cookie);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    // Runs count calls on concurrency threads and times each.
+    private Phase drive(int count, Call call) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, Math.max(count, 1)));
+        Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+        LongAdder failures = new LongAdder();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            int n = i;
+            executor.execute(() -> {
+                long callStart = System.nanoTime();
+                boolean ok;
+                try {
+                    ok = call.run(n);
+                } catch (Exception e) {
+                    ok = false;
+                }
+                latencies.add(System.nanoTime() - callStart);
+                if (!ok) {
+                    failures.increment();
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        return new Phase(sorted, failures.sum(), System.nanoTime() - start);
+    }
+
+    private void reportTicks(Instant since, Duration duration) throws Exception {
+        HttpResponse<String> response = get("/v1/history?limit=1000&since=" + since, null);
+        JsonNode entries = Utils.parseTree(response.body().getBytes(StandardCharsets.UTF_8));
+        long[] tickMillis = new long[entries.size()];
+        long sent = 0;
+        long deferred = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            tickMillis[i] = entries.get(i).path("durationMs").asLong();
+            sent += entries.get(i).path("sent").asLong();
+            deferred += entries.get(i).path("deferred").asLong();
+        }
+        Arrays.sort(tickMillis);
+        System.out.printf("%-18s %d ticks, p50 %d ms, p99 %d ms, %d sent (%.1f/s), %d deferred%n",
+                "notify tick", tickMillis.length, percentile(tickMillis, 0.50, Function.identity()),
+                percentile(tickMillis, 0.99, Function.identity()), sent,
+                sent / (duration.toMillis() / 1000.0), deferred);
+    }
+
+    private static void report(String name, Phase phase) {
+        Function<Long, Long> millis = nanos -> TimeUnit.NANOSECONDS.toMillis(nanos);
+        System.out.printf("%-18s %d calls, %d failed, p50 %d ms, p99 %d ms, %.1f/s%n",
+                name, phase.latencies.length, phase.failures, percentile(phase.latencies, 0.50, millis),
+                percentile(phase.latencies, 0.99, millis),
+                phase.latencies.length / (phase.elapsedNanos / 1e9));
+    }
+
+    private static long percentile(long[] sorted, double p, Function<Long, Long> unit) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return unit.apply(sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+    }
+
+    private interface Call {
+        boolean run(int i) throws Exception;
+    }
+
+    private record Phase(long[] latencies, long failures, long elapsedNanos) {
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.authdemo;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One full NotifyService.sendNotifyAll tick, including the outbox writes,
+ * against a local stub of the notify endpoint that answers after
+ * {@code latencyMs}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class NotifyDispatchBenchmark {
+
+    private static final byte[] OK = "{\"status\":200,\"message\":\"ok\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"100", "1000"})
+    int users;
+
+    @Param({"0", "20"})
+    int latencyMs;
+
+    @Param({"64"})
+    int maxInFlight;
+
+    private HttpServer server;
+
+    private ExecutorService serverExecutor;
+
+    private NotifyService notifyService;
+
+    private NotifyDispatcher dispatcher;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.setExecutor(serverExecutor);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            if (latencyMs > 0) {
+                try {
+                    Thread.sleep(latencyMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, OK.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(OK);
+            }
+        });
+        server.start();
+
+        URI base = URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+        UserRepository repository = new InMemoryUserRepository();
+        for (int i = 0; i < users; i++) {
+            repository.save(BenchmarkSupport.user(i));
+        }
+        NotifyHistory history = new NotifyHistory(24, 100, 10);
+        LineApiClient lineApiClient = BenchmarkSupport.lineApiClient(base);
+        NotifyOutbox outbox = BenchmarkSupport.outbox();
+        AppMetrics metrics = BenchmarkSupport.metrics(repository, history, outbox, lineApiClient);
+        UserService userService = BenchmarkSupport.userService(repository, lineApiClient, metrics);
+        dispatcher = new NotifyDispatcher(maxInFlight, 60000);
+        notifyService = new NotifyService(userService, dispatcher, new NotifyRateLimiter(60), history,
+                lineApiClient, metrics, new ClusterMembership(new InMemoryClusterStore(), "bench", 15000, 128),
+                outbox, 1000, 60000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        dispatcher.shutdown();
+    }
+
+    @Benchmark
+    public DispatchResult tick() {
+        return notifyService.sendNotifyAll().join();
+    }
+}
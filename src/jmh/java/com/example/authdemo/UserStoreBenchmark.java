@@ -0,0 +1,84 @@
+package com.example.authdemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UserService save/get/getAllUsers and the paged notifiable scan over
+ * stores of 10k to 1M users.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UserStoreBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    int users;
+
+    @Param({"memory", "jdbc"})
+    String store;
+
+    private UserRepository repository;
+
+    private UserService userService;
+
+    private UserInfo[] samples;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        repository = BenchmarkSupport.repository(store);
+        NotifyHistory history = new NotifyHistory(24, 100, 10);
+        LineApiClient lineApiClient = BenchmarkSupport.lineApiClient(null);
+        userService = BenchmarkSupport.userService(repository, lineApiClient,
+                BenchmarkSupport.metrics(repository, history, BenchmarkSupport.outbox(), lineApiClient));
+
+        samples = new UserInfo[users];
+        for (int i = 0; i < users; i++) {
+            samples[i] = BenchmarkSupport.user(i);
+            repository.save(samples[i]);
+        }
+        if (repository instanceof CachingUserRepository caching) {
+            caching.flush();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (repository instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    @Benchmark
+    public void save() {
+        userService.saveUserInfo(samples[ThreadLocalRandom.current().nextInt(users)]);
+    }
+
+    @Benchmark
+    public UserInfo get() {
+        return userService.getUserInfo(samples[ThreadLocalRandom.current().nextInt(users)].getUserId());
+    }
+
+    @Benchmark
+    public List<UserInfo> getAll() {
+        return userService.getAllUsers();
+    }
+
+    @Benchmark
+    public void forEachNotifiable(Blackhole blackhole) {
+        userService.forEachNotifiable(blackhole::consume);
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.authdemo;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * All application meters, registered once up front. Callers only ever look
+ * up a prebuilt meter by enum and increment it, so recording allocates
+ * nothing even on the per-user notify path.
+ */
+@Component
+public class AppMetrics {
+
+    public enum Callback {
+        LOGIN,
+        BOT
+    }
+
+    public enum CallbackOutcome {
+        // Redirected back to the frontend.
+        SUCCESS,
+        // 4xx: LINE or the user rejected the authorization.
+        REJECTED,
+        // 5xx: LINE failed or did not answer in time.
+        FAILED;
+
+        static CallbackOutcome of(int statusCode) {
+            if (statusCode >= 500) {
+                return FAILED;
+            }
+            return statusCode >= 400 ? REJECTED : SUCCESS;
+        }
+    }
+
+    private final Map<Callback, Map<CallbackOutcome, Timer>> callbackTimers = new EnumMap<>(Callback.class);
+
+    private final Timer tickTimer;
+
+    private final DistributionSummary tickThroughput;
+
+    private final Map<NotifyOutcome, Counter> notifyCounters = new EnumMap<>(NotifyOutcome.class);
+
+    private final Map<TokenVerification.Status, Counter> verifyCounters = new EnumMap<>(TokenVerification.Status.class);
+
+    private final Counter verifyCalls;
+
+    private final Counter refreshSuccess;
+
+    private final Counter refreshFailure;
+
+    private final Counter outboxRetries;
+
+    private final Counter outboxDeadLettered;
+
+    private final Map<UserEvent.Type, Counter> userEventCounters = new EnumMap<>(UserEvent.Type.class);
+
+    private final UserRepository userRepository;
+
+    private final NotifyOutbox outbox;
+
+    // Counted in the database, so refreshed on a schedule rather than on every scrape.
+    private volatile long storedUsers;
+
+    private volatile NotifyOutbox.Stats outboxStats = new NotifyOutbox.Stats(0, 0, 0);
+
+    @Autowired
+    public AppMetrics(MeterRegistry registry, UserRepository userRepository, NotifyHistory history,
+                      NotifyOutbox outbox, LineApiClient lineApiClient, UserEventBus userEvents) {
+        this.userRepository = userRepository;
+        this.outbox = outbox;
+        for (Callback callback : Callback.values()) {
+            Map<CallbackOutcome, Timer> timers = new EnumMap<>(CallbackOutcome.class);
+            for (CallbackOutcome outcome : CallbackOutcome.values()) {
+                timers.put(outcome, Timer.builder("auth.callback")
+                        .description("LINE OAuth callback handling time")
+                        .tag("callback", callback.name().toLowerCase())
+                        .tag("outcome", outcome.name().toLowerCase())
+                        .register(registry));
+            }
+            callbackTimers.put(callback, timers);
+        }
+
+        tickTimer = Timer.builder("notify.tick")
+                .description("Time from the start of a notify tick until every user is handled")
+                .register(registry);
+        tickThroughput = DistributionSummary.builder("notify.tick.throughput")
+                .description("Users handled per second in a notify tick")
+                .baseUnit("users/s")
+                .register(registry);
+        for (NotifyOutcome outcome : NotifyOutcome.values()) {
+            notifyCounters.put(outcome, Counter.builder("notify.sends")
+                    .tag("outcome", outcome.name().toLowerCase())
+                    .register(registry));
+        }
+
+        for (TokenVerification.Status status : TokenVerification.Status.values()) {
+            verifyCounters.put(status, Counter.builder("line.token.verify")
+                    .description("Token verifications, answered from cache or upstream")
+                    .tag("status", status.name().toLowerCase())
+                    .register(registry));
+        }
+        verifyCalls = Counter.builder("line.token.verify.upstream")
+                .description("Verify calls that went to LINE")
+                .register(registry);
+        refreshSuccess = Counter.builder("line.token.refresh").tag("result", "success").register(registry);
+        refreshFailure = Counter.builder("line.token.refresh").tag("result", "failure").register(registry);
+
+        outboxRetries = Counter.builder("notify.outbox.retries")
+                .description("Failed notify sends scheduled for another attempt")
+                .register(registry);
+        outboxDeadLettered = Counter.builder("notify.outbox.dead_lettered")
+                .description("Notify messages given up on after their last attempt")
+                .register(registry);
+        Gauge.builder("notify.outbox.pending", this, m -> m.outboxStats.pending())
+                .description("Notify messages waiting to be sent or retried")
+                .register(registry);
+        Gauge.builder("notify.outbox.dead", this, m -> m.outboxStats.dead())
+                .description("Notify messages in the dead-letter state")
+                .register(registry);
+
+        for (UpstreamGroup group : UpstreamGroup.values()) {
+            Gauge.builder("line.circuit.open", lineApiClient, c -> c.isAvailable(group) ? 0 : 1)
+                    .description("1 while calls to this group of LINE endpoints are refused")
+                    .tag("group", group.name().toLowerCase())
+                    .register(registry);
+        }
+
+        for (UserEvent.Type type : UserEvent.Type.values()) {
+            userEventCounters.put(type, Counter.builder("users.events")
+                    .description("User lifecycle events")
+                    .tag("type", type.name().toLowerCase())
+                    .register(registry));
+        }
+        Gauge.builder("users.events.queued", userEvents, UserEventBus::getQueued)
+                .description("User events waiting for their listeners")
+                .register(registry);
+        Gauge.builder("users.events.dropped", userEvents, UserEventBus::getDropped)
+                .description("User events dropped because the queue was full")
+                .register(registry);
+
+        Gauge.builder("users.stored", this, m -> m.storedUsers)
+                .description("Users in the user store")
+                .register(registry);
+        Gauge.builder("notify.history.size", history, NotifyHistory::size)
+                .description("Ticks held in the notify history")
+                .register(registry);
+    }
+
+    @Scheduled(fixedDelayString = "${metrics.store_refresh_ms:15000}")
+    public void refreshStoreCounts() {
+        storedUsers = userRepository.count();
+        outboxStats = outbox.getStats();
+    }
+
+    public void recordCallback(Callback callback, int statusCode, long nanos) {
+        callbackTimers.get(callback).get(CallbackOutcome.of(statusCode)).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordTick(DispatchResult result) {
+        tickTimer.record(result.duration());
+        tickThroughput.record(result.throughput());
+        for (NotifyOutcome outcome : NotifyOutcome.values()) {
+            long count = result.count(outcome);
+            if (count > 0) {
+                notifyCounters.get(outcome).increment(count);
+            }
+        }
+    }
+
+    public void recordVerify(TokenVerification.Status status) {
+        verifyCounters.get(status).increment();
+    }
+
+    public void recordVerifyCall() {
+        verifyCalls.increment();
+    }
+
+    public void recordOutbox(long retries, long deadLettered) {
+        outboxRetries.increment(retries);
+        outboxDeadLettered.increment(deadLettered);
+    }
+
+    @EventListener
+    public void onUserEvent(UserEvent event) {
+        userEventCounters.get(event.type()).increment();
+    }
+
+    public void recordRefresh(boolean success) {
+        (success ? refreshSuccess : refreshFailure).increment();
+    }
+}
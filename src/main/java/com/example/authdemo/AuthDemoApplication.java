@@ -2,6 +2,7 @@ package com.example.authdemo;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
@@ -16,7 +17,11 @@ public class AuthDemoApplication {
   private String frontendServerUri;
 
 	public static void main(String[] args) {
-		SpringApplication.run(AuthDemoApplication.class, args);
+		ConfigurableApplicationContext context = SpringApplication.run(AuthDemoApplication.class, args);
+		// Training run of the cdsArchive build task: exit once started so the JVM writes the archive.
+		if (Boolean.getBoolean("cds.training")) {
+			System.exit(SpringApplication.exit(context));
+		}
 	}
 
   // Allowing CORS.  This is used only for development or
@@ -0,0 +1,297 @@
+package com.example.authdemo;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-through cache with write-behind in front of a slower (persistent)
+ * repository. Saves and removes only touch memory; a background thread
+ * writes them to the backing store in batches. Users are loaded from the
+ * backing store the first time they are asked for, not at startup.
+ *
+ * <p>When other nodes write the same store, pass a {@link JdbcUserChangeLog}:
+ * the same thread then evicts the users they wrote, and pages are built from
+ * the stored rows rather than this node's copies.
+ */
+@Slf4j
+public class CachingUserRepository implements UserRepository, AutoCloseable {
+
+    // How far back each sync reads again, for writes committed late or stamped by a slightly slow clock.
+    private static final long CHANGE_OVERLAP_MS = 5000;
+
+    private static final long CHANGE_RETENTION_MS = 600000;
+
+    private final UserRepository backing;
+
+    private final int batchSize;
+
+    // Null when this node is the only writer.
+    private final JdbcUserChangeLog changes;
+
+    private long syncedUntil = System.currentTimeMillis();
+
+    private long prunedAt;
+
+    private final Cache<String, UserInfo> cache;
+
+    // Latest unflushed write per user; a null user means "remove".
+    private final Map<String, PendingWrite> pending = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("user-store-flush").setDaemon(true).build());
+
+    public CachingUserRepository(UserRepository backing, long cacheSize, long flushIntervalMs, int batchSize) {
+        this(backing, cacheSize, 0, flushIntervalMs, batchSize, null);
+    }
+
+    // A cacheTtlMs of 0 keeps users until they are evicted for size.
+    public CachingUserRepository(UserRepository backing, long cacheSize, long cacheTtlMs, long flushIntervalMs,
+                                 int batchSize, JdbcUserChangeLog changes) {
+        this.backing = backing;
+        this.batchSize = Math.max(1, batchSize);
+        this.changes = changes;
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize(cacheSize);
+        if (cacheTtlMs > 0) {
+            builder.expireAfterWrite(cacheTtlMs, TimeUnit.MILLISECONDS);
+        }
+        this.cache = builder.build();
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        if (changes != null) {
+            flusher.scheduleWithFixedDelay(this::syncQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void save(UserInfo user) {
+        cache.put(user.getUserId(), user);
+        pending.put(user.getUserId(), new PendingWrite(user));
+    }
+
+    @Override
+    public UserInfo find(String userId) {
+        PendingWrite write = pending.get(userId);
+        if (write != null) {
+            return write.user;
+        }
+        UserInfo user = cache.getIfPresent(userId);
+        if (user == null) {
+            user = backing.find(userId);
+            if (user != null) {
+                // Don't resurrect a user removed while we were reading.
+                UserInfo loaded = user;
+                user = pending.containsKey(userId) ? find(userId) : cache.asMap().computeIfAbsent(userId, k -> loaded);
+            }
+        }
+        return user;
+    }
+
+    @Override
+    public List<UserInfo> findAll() {
+        Map<String, UserInfo> result = new LinkedHashMap<>();
+        for (UserInfo user : backing.findAll()) {
+            result.put(user.getUserId(), preferCached(user));
+        }
+        for (Map.Entry<String, PendingWrite> e : pending.entrySet()) {
+            if (e.getValue().user == null) {
+                result.remove(e.getKey());
+            } else {
+                result.put(e.getKey(), e.getValue().user);
+            }
+        }
+        return new ArrayList<>(result.values());
+    }
+
+    @Override
+    public List<UserInfo> findNotifiable(String afterUserId, int limit) {
+        return page(n -> backing.findNotifiable(afterUserId, n), UserInfo::isNotifiable,
+                user -> new Position(0, user.getUserId()),
+                afterUserId == null ? null : new Position(0, afterUserId), limit);
+    }
+
+    @Override
+    public List<UserInfo> findExpiringBefore(Instant before, Instant afterExpiry, String afterUserId, int limit) {
+        long bound = before.getEpochSecond();
+        return page(n -> backing.findExpiringBefore(before, afterExpiry, afterUserId, n),
+                user -> user.getAccessTokenExpiresAt() != null
+                        && user.getAccessTokenExpiresAt().getEpochSecond() < bound,
+                user -> new Position(user.getAccessTokenExpiresAt() == null ? Long.MAX_VALUE
+                        : user.getAccessTokenExpiresAt().getEpochSecond(), user.getUserId()),
+                afterExpiry == null ? null
+                        : new Position(afterExpiry.getEpochSecond(), afterUserId == null ? "" : afterUserId),
+                limit);
+    }
+
+    /**
+     * A page from the backing store with unflushed writes applied on top.
+     * Pending writes are few (they are flushed every interval), so checking
+     * each of them against the page's key range is cheap. {@code position}
+     * gives a matching user's place in the order the backing store pages in.
+     */
+    private List<UserInfo> page(IntFunction<List<UserInfo>> reader, Predicate<UserInfo> matches,
+                                Function<UserInfo, Position> position, Position after,
+                                int limit) {
+        // Read enough extra that pending removes cannot shrink a full page below limit,
+        // which the caller would take for the last page.
+        int fetch = limit + pending.size();
+        List<UserInfo> stored = reader.apply(fetch);
+        // A full page only covers positions up to its last one; a short page covers the rest.
+        Position upTo = stored.size() < fetch ? null : position.apply(stored.get(stored.size() - 1));
+
+        Map<String, UserInfo> page = new HashMap<>();
+        for (UserInfo user : stored) {
+            page.put(user.getUserId(), preferCached(user));
+        }
+        for (Map.Entry<String, PendingWrite> e : pending.entrySet()) {
+            UserInfo user = e.getValue().user;
+            // A pending write can also move a stored user out of this page.
+            if (user == null || !matches.test(user)) {
+                page.remove(e.getKey());
+                continue;
+            }
+            Position at = position.apply(user);
+            if ((after != null && at.compareTo(after) <= 0) || (upTo != null && at.compareTo(upTo) > 0)) {
+                page.remove(e.getKey());
+            } else {
+                page.put(e.getKey(), user);
+            }
+        }
+        List<UserInfo> result = new ArrayList<>(page.values());
+        result.sort(Comparator.comparing(position));
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    // With other writers the row just read is newer than any copy of ours not yet evicted.
+    private UserInfo preferCached(UserInfo stored) {
+        UserInfo cached = changes == null ? cache.getIfPresent(stored.getUserId()) : null;
+        return cached != null ? cached : stored;
+    }
+
+    @Override
+    public void remove(String userId) {
+        cache.invalidate(userId);
+        pending.put(userId, new PendingWrite(null));
+    }
+
+    // As of the last flush; writes still pending are not counted.
+    @Override
+    public long count() {
+        return backing.count();
+    }
+
+    public synchronized void flush() {
+        List<Map.Entry<String, PendingWrite>> batch = new ArrayList<>(batchSize);
+        for (Map.Entry<String, PendingWrite> e : pending.entrySet()) {
+            batch.add(Map.entry(e.getKey(), e.getValue()));
+            if (batch.size() == batchSize) {
+                write(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+    }
+
+    private void write(List<Map.Entry<String, PendingWrite>> batch) {
+        List<UserInfo> saves = new ArrayList<>();
+        List<String> removes = new ArrayList<>();
+        for (Map.Entry<String, PendingWrite> e : batch) {
+            if (e.getValue().user == null) {
+                removes.add(e.getKey());
+            } else {
+                saves.add(e.getValue().user);
+            }
+        }
+        if (!saves.isEmpty()) {
+            backing.saveAll(saves);
+        }
+        if (!removes.isEmpty()) {
+            backing.removeAll(removes);
+        }
+        if (changes != null) {
+            List<String> userIds = new ArrayList<>(batch.size());
+            for (Map.Entry<String, PendingWrite> e : batch) {
+                userIds.add(e.getKey());
+            }
+            changes.record(userIds, System.currentTimeMillis());
+        }
+        // A newer write for the same user stays pending for the next flush.
+        for (Map.Entry<String, PendingWrite> e : batch) {
+            pending.remove(e.getKey(), e.getValue());
+        }
+        log.debug("flushed {} saves and {} removes", saves.size(), removes.size());
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("user store flush failed, will retry: {}", e.getMessage());
+        }
+    }
+
+    // Evicts users other nodes wrote since the last sync; pending writes here still win.
+    private void sync() {
+        long now = System.currentTimeMillis();
+        List<String> changed = changes.changedByOthersSince(syncedUntil - CHANGE_OVERLAP_MS);
+        cache.invalidateAll(changed);
+        syncedUntil = now;
+        if (now - prunedAt >= CHANGE_RETENTION_MS) {
+            changes.prune(now - CHANGE_RETENTION_MS);
+            prunedAt = now;
+        }
+        if (!changed.isEmpty()) {
+            log.debug("evicted {} users written by other nodes", changed.size());
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (RuntimeException e) {
+            log.warn("user store sync failed, will retry: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        flush();
+    }
+
+    private record Position(long key, String userId) implements Comparable<Position> {
+
+        @Override
+        public int compareTo(Position other) {
+            int c = Long.compare(key, other.key);
+            return c != 0 ? c : userId.compareTo(other.userId);
+        }
+    }
+
+    // Compared by identity, so a re-save of the same UserInfo after a flush started is not lost.
+    private static final class PendingWrite {
+
+        private final UserInfo user;
+
+        PendingWrite(UserInfo user) {
+            this.user = user;
+        }
+    }
+}
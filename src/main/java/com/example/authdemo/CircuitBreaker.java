@@ -0,0 +1,137 @@
+package com.example.authdemo;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Count-based circuit breaker. While closed it tracks the outcome of the
+ * last {@code window} calls and opens once at least {@code minCalls} of
+ * them have been seen and the failure rate reaches the threshold. An open
+ * circuit refuses every call for {@code openFor}, then lets
+ * {@code halfOpenCalls} probes through: it closes if all of them succeed
+ * and opens again on the first failure.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public record Settings(int window, int minCalls, int failureRatePercent, Duration openFor, int halfOpenCalls) {
+    }
+
+    // Returned by tryAcquire when the call must not be made.
+    public static final long REJECTED = -1;
+
+    private final Settings settings;
+
+    private final LongSupplier nanoClock;
+
+    // The fields below are guarded by this.
+    private State state = State.CLOSED;
+
+    // Bumped on every state change; results of calls from an earlier state are ignored.
+    private long generation;
+
+    private final boolean[] failed;
+
+    private int next;
+
+    private int recorded;
+
+    private int failures;
+
+    private long openedAtNanos;
+
+    private int probesStarted;
+
+    private int probesSucceeded;
+
+    public CircuitBreaker(Settings settings) {
+        this(settings, System::nanoTime);
+    }
+
+    CircuitBreaker(Settings settings, LongSupplier nanoClock) {
+        this.settings = settings;
+        this.nanoClock = nanoClock;
+        this.failed = new boolean[Math.max(1, settings.window())];
+    }
+
+    /**
+     * A permit for one call, to be passed to {@link #onResult}, or
+     * {@link #REJECTED} if the circuit does not allow the call.
+     */
+    public synchronized long tryAcquire() {
+        if (state == State.OPEN) {
+            if (nanoClock.getAsLong() - openedAtNanos < settings.openFor().toNanos()) {
+                return REJECTED;
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesStarted >= settings.halfOpenCalls()) {
+                return REJECTED;
+            }
+            probesStarted++;
+        }
+        return generation;
+    }
+
+    public synchronized void onResult(long permit, boolean success) {
+        if (permit != generation) {
+            return;
+        }
+        switch (state) {
+            case CLOSED -> {
+                if (recorded == failed.length) {
+                    failures -= failed[next] ? 1 : 0;
+                } else {
+                    recorded++;
+                }
+                failed[next] = !success;
+                failures += success ? 0 : 1;
+                next = (next + 1) % failed.length;
+                if (recorded >= settings.minCalls() && failures * 100 >= settings.failureRatePercent() * recorded) {
+                    transition(State.OPEN);
+                }
+            }
+            case HALF_OPEN -> {
+                if (!success) {
+                    transition(State.OPEN);
+                } else if (++probesSucceeded >= settings.halfOpenCalls()) {
+                    transition(State.CLOSED);
+                }
+            }
+            case OPEN -> {
+                // Unreachable: no permits are handed out while open.
+            }
+        }
+    }
+
+    public synchronized State getState() {
+        // Report an expired open circuit as half-open, as the next call will see it.
+        if (state == State.OPEN && nanoClock.getAsLong() - openedAtNanos >= settings.openFor().toNanos()) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    private void transition(State to) {
+        state = to;
+        generation++;
+        switch (to) {
+            case OPEN -> openedAtNanos = nanoClock.getAsLong();
+            case HALF_OPEN -> {
+                probesStarted = 0;
+                probesSucceeded = 0;
+            }
+            case CLOSED -> {
+                next = 0;
+                recorded = 0;
+                failures = 0;
+            }
+        }
+    }
+}
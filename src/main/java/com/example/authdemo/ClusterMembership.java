@@ -0,0 +1,90 @@
+package com.example.authdemo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * This node's view of the cluster. It renews its lease in the shared
+ * {@link ClusterStore} and rebuilds the {@link HashRing} whenever the set
+ * of live nodes changes; a user belongs to exactly one live node, the one
+ * that notifies it.
+ */
+@Slf4j
+@Component
+// Joins the cluster at startup, not when something first asks who owns a user.
+@Lazy(false)
+public class ClusterMembership {
+
+    private final ClusterStore store;
+
+    private final String nodeId;
+
+    private final Duration leaseTtl;
+
+    private final int virtualNodes;
+
+    private volatile HashRing ring;
+
+    @Autowired
+    public ClusterMembership(ClusterStore store,
+                             @Value("${cluster.node_id:}") String nodeId,
+                             @Value("${cluster.lease_ttl_ms:15000}") long leaseTtlMs,
+                             @Value("${cluster.virtual_nodes:128}") int virtualNodes) {
+        this.store = store;
+        this.nodeId = nodeId.isBlank() ? UUID.randomUUID().toString() : nodeId;
+        this.leaseTtl = Duration.ofMillis(leaseTtlMs);
+        this.virtualNodes = virtualNodes;
+        this.ring = new HashRing(Set.of(this.nodeId), virtualNodes);
+        refresh(Instant.now());
+    }
+
+    @Scheduled(fixedDelayString = "${cluster.heartbeat_ms:5000}")
+    public void heartbeat() {
+        try {
+            refresh(Instant.now());
+        } catch (RuntimeException e) {
+            // Keep the last known ring; a short store outage should not stop notifications.
+            log.warn("cluster heartbeat failed: {}", e.getMessage());
+        }
+    }
+
+    public void refresh(Instant now) {
+        store.heartbeat(nodeId, now.plus(leaseTtl));
+        Set<String> live = store.liveNodes(now);
+        if (!live.equals(ring.nodes())) {
+            log.info("cluster membership changed: {} -> {}", ring.nodes(), live);
+            ring = new HashRing(live, virtualNodes);
+        }
+    }
+
+    public boolean owns(String userId) {
+        return nodeId.equals(ring.owner(userId));
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public Set<String> getNodes() {
+        return ring.nodes();
+    }
+
+    @PreDestroy
+    public void leave() {
+        try {
+            store.leave(nodeId);
+        } catch (RuntimeException e) {
+            log.warn("could not leave the cluster, lease will expire: {}", e.getMessage());
+        }
+    }
+}
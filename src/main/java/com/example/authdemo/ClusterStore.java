@@ -0,0 +1,17 @@
+package com.example.authdemo;
+
+import java.time.Instant;
+import java.util.Set;
+
+/**
+ * Shared record of which nodes are alive. Each node renews its own lease
+ * with {@link #heartbeat}; a node whose lease ran out is treated as gone.
+ */
+public interface ClusterStore {
+
+    void heartbeat(String nodeId, Instant leaseExpiresAt);
+
+    Set<String> liveNodes(Instant now);
+
+    void leave(String nodeId);
+}
@@ -0,0 +1,41 @@
+package com.example.authdemo;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+
+@Configuration
+public class ClusterStoreConfig {
+
+    // A single node that owns every user.
+    @Bean
+    @ConditionalOnProperty(name = "cluster.store", havingValue = "memory", matchIfMissing = true)
+    public ClusterStore inMemoryClusterStore() {
+        return new InMemoryClusterStore();
+    }
+
+    // Every node must point at the same database.
+    @Bean
+    @ConditionalOnProperty(name = "cluster.store", havingValue = "jdbc")
+    public ClusterStore jdbcClusterStore(JdbcTemplate jdbcTemplate) {
+        return new JdbcClusterStore(jdbcTemplate);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "cluster.store", havingValue = "memory", matchIfMissing = true)
+    public OAuthStateStore inMemoryOAuthStateStore(@Value("${line.callback.ttl_ms:600000}") long ttlMs,
+                                                   @Value("${line.callback.store_size:100000}") long maximumSize) {
+        return new InMemoryOAuthStateStore(Duration.ofMillis(ttlMs), maximumSize);
+    }
+
+    // A callback can reach another node than the one that issued its state.
+    @Bean
+    @ConditionalOnProperty(name = "cluster.store", havingValue = "jdbc")
+    public OAuthStateStore jdbcOAuthStateStore(JdbcTemplate jdbcTemplate) {
+        return new JdbcOAuthStateStore(jdbcTemplate);
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.authdemo;
+
+import java.time.Duration;
+import java.util.List;
+
+public record DispatchResult(List<UserResult> results, Duration duration) {
+
+    public record UserResult(UserInfo user, NotifyOutcome outcome) {
+    }
+
+    public long count(NotifyOutcome outcome) {
+        return results.stream().filter(r -> r.outcome() == outcome).count();
+    }
+
+    public List<String> recipients() {
+        return results.stream()
+                .filter(r -> r.outcome() == NotifyOutcome.SENT)
+                .map(r -> r.user().getDisplayName())
+                .toList();
+    }
+
+    // Users handled (sent or failed) per second over the whole tick.
+    public double throughput() {
+        long handled = count(NotifyOutcome.SENT) + count(NotifyOutcome.FAILED);
+        long millis = Math.max(1, duration.toMillis());
+        return handled * 1000.0 / millis;
+    }
+}
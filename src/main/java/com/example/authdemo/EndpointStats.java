@@ -0,0 +1,107 @@
+package com.example.authdemo;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram and error counts for one upstream endpoint. Recording is
+ * a couple of {@link LongAdder} increments, so it is safe on the notify path.
+ */
+public class EndpointStats {
+
+    // Upper bounds in milliseconds; the last bucket takes everything slower and is
+    // reported as the slowest call seen.
+    private static final long[] BOUNDS_MS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    public record Snapshot(long count, long errors, long clientErrors, double meanMs, long p50Ms, long p99Ms,
+                           long maxBucketMs) {
+    }
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_MS.length + 1];
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final LongAccumulator maxMillis = new LongAccumulator(Math::max, 0);
+
+    // Exceptions (timeouts, connection failures) and 5xx responses.
+    private final LongAdder errors = new LongAdder();
+
+    // 4xx responses; usually a token problem rather than LINE being unhealthy.
+    private final LongAdder clientErrors = new LongAdder();
+
+    public EndpointStats() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos, int statusCode) {
+        time(nanos);
+        if (statusCode >= 500) {
+            errors.increment();
+        } else if (statusCode >= 400) {
+            clientErrors.increment();
+        }
+    }
+
+    public void recordFailure(long nanos) {
+        time(nanos);
+        errors.increment();
+    }
+
+    private void time(long nanos) {
+        long millis = nanos / 1_000_000;
+        totalNanos.add(nanos);
+        maxMillis.accumulate(millis);
+        buckets[bucketOf(millis)].increment();
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[buckets.length];
+        long count = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+        double mean = count == 0 ? 0 : totalNanos.sum() / 1_000_000.0 / count;
+        long max = maxMillis.get();
+        long maxBucket = 0;
+        for (int i = counts.length - 1; i >= 0; i--) {
+            if (counts[i] > 0) {
+                maxBucket = upperBound(i, max);
+                break;
+            }
+        }
+        return new Snapshot(count, errors.sum(), clientErrors.sum(), mean,
+                percentile(counts, count, 0.50, max), percentile(counts, count, 0.99, max), maxBucket);
+    }
+
+    // Reported as the upper bound of the bucket the percentile falls into.
+    private static long percentile(long[] counts, long total, double p, long max) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * p);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBound(i, max);
+            }
+        }
+        return upperBound(counts.length - 1, max);
+    }
+
+    private static long upperBound(int bucket, long max) {
+        return bucket < BOUNDS_MS.length ? BOUNDS_MS[bucket] : Math.max(max, BOUNDS_MS[BOUNDS_MS.length - 1]);
+    }
+
+    private static int bucketOf(long millis) {
+        for (int i = 0; i < BOUNDS_MS.length; i++) {
+            if (millis <= BOUNDS_MS[i]) {
+                return i;
+            }
+        }
+        return BOUNDS_MS.length;
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.authdemo;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring over node IDs. Each node is placed at
+ * {@code virtualNodes} points so keys spread evenly; when a node joins or
+ * leaves, only the keys next to its points change owner.
+ */
+public final class HashRing {
+
+    private static final HashFunction HASH = Hashing.murmur3_32_fixed();
+
+    private final Set<String> nodes;
+
+    private final int[] points;
+
+    private final String[] owners;
+
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        TreeMap<Integer, String> ring = new TreeMap<>();
+        for (String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // On a collision the smaller node ID wins, so every node builds the same ring.
+                ring.merge(hash(node + "#" + i), node, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+        this.nodes = Set.copyOf(nodes);
+        this.points = new int[ring.size()];
+        this.owners = new String[ring.size()];
+        int i = 0;
+        for (var e : ring.entrySet()) {
+            points[i] = e.getKey();
+            owners[i] = e.getValue();
+            i++;
+        }
+    }
+
+    public Set<String> nodes() {
+        return nodes;
+    }
+
+    // The first node point at or after the key's hash, wrapping around; null on an empty ring.
+    public String owner(String key) {
+        if (points.length == 0) {
+            return null;
+        }
+        int i = Arrays.binarySearch(points, hash(key));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    private static int hash(String s) {
+        return HASH.hashString(s, StandardCharsets.UTF_8).asInt();
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.authdemo;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Instant;
+
+/**
+ * Verified payload of a LINE Login ID token.
+ *
+ * https://developers.line.biz/en/docs/line-login/verify-id-token/#payload
+ */
+public record IdTokenClaims(
+        @JsonProperty("iss") String issuer,
+        @JsonProperty("sub") String subject,
+        @JsonProperty("aud") String audience,
+        @JsonProperty("exp") Instant expiresAt,
+        @JsonProperty("iat") Instant issuedAt,
+        @JsonProperty("name") String name,
+        @JsonProperty("picture") String picture) {
+}
@@ -0,0 +1,220 @@
+package com.example.authdemo;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verifies LINE Login ID tokens locally. HS256 tokens are checked against
+ * the channel secret; ES256 tokens against the LINE JWKS key set, which is
+ * fetched and refreshed in the background so a login never waits for it.
+ * Verified claims are cached per token.
+ *
+ * https://developers.line.biz/en/docs/line-login/verify-id-token/
+ */
+@Slf4j
+@Component
+public class IdTokenVerifier {
+
+    private static final String ISSUER = "https://access.line.me";
+
+    private static final Duration CLOCK_SKEW = Duration.ofMinutes(1);
+
+    // An unknown kid triggers a key refresh at most this often.
+    private static final Duration MIN_REFRESH_INTERVAL = Duration.ofMinutes(1);
+
+    private static final Base64.Decoder BASE64_URL = Base64.getUrlDecoder();
+
+    private final String clientId;
+
+    private final byte[] clientSecret;
+
+    private final LineApiClient lineApiClient;
+
+    private final Cache<String, IdTokenClaims> claimsCache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .build();
+
+    private volatile Map<String, PublicKey> keys = Map.of();
+
+    private final AtomicLong lastRefresh = new AtomicLong();
+
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("jwks-refresh").setDaemon(true).build());
+
+    @Autowired
+    public IdTokenVerifier(LineApiClient lineApiClient,
+                           @Value("${line.client_id}") String clientId,
+                           @Value("${line.client_secret}") String clientSecret,
+                           @Value("${line.jwks_refresh_minutes:60}") long refreshMinutes) {
+        this.lineApiClient = lineApiClient;
+        this.clientId = clientId;
+        this.clientSecret = clientSecret.getBytes(StandardCharsets.UTF_8);
+        refresher.scheduleWithFixedDelay(this::refreshKeys, 0, refreshMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Returns the verified claims, or null if the token is malformed, has a
+     * bad signature, or is not meant for this channel.
+     */
+    public IdTokenClaims verify(String idToken) {
+        IdTokenClaims cached = claimsCache.getIfPresent(idToken);
+        if (cached != null) {
+            return isCurrent(cached) ? cached : null;
+        }
+        try {
+            String[] parts = idToken.split("\\.");
+            if (parts.length != 3) {
+                log.info("id_token is not a JWS");
+                return null;
+            }
+            JwtHeader header = Utils.parse(BASE64_URL.decode(parts[0]), JwtHeader.class);
+            IdTokenClaims claims = Utils.parse(BASE64_URL.decode(parts[1]), IdTokenClaims.class);
+            byte[] signingInput = (parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII);
+            byte[] signature = BASE64_URL.decode(parts[2]);
+
+            log.debug("header: {}", header);
+            log.debug("payload: {}", claims);
+
+            if (!verifySignature(header, signingInput, signature)) {
+                log.info("id_token signature is invalid");
+                return null;
+            }
+
+            if (!ISSUER.equals(claims.issuer()) || !clientId.equals(claims.audience())) {
+                log.info("id_token is not issued for this channel: {} {}", claims.issuer(), claims.audience());
+                return null;
+            }
+            if (claims.expiresAt() == null || !isCurrent(claims)) {
+                log.info("id_token is expired");
+                return null;
+            }
+            claimsCache.put(idToken, claims);
+            return claims;
+        } catch (IllegalArgumentException | IOException | GeneralSecurityException e) {
+            log.info("id_token cannot be verified: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean verifySignature(JwtHeader header, byte[] signingInput, byte[] signature)
+            throws GeneralSecurityException {
+        String algorithm = header.alg();
+        if (algorithm == null) {
+            log.info("id_token has no algorithm");
+            return false;
+        }
+        switch (algorithm) {
+            case "HS256": {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(clientSecret, "HmacSHA256"));
+                return MessageDigest.isEqual(mac.doFinal(signingInput), signature);
+            }
+            case "ES256": {
+                String kid = header.kid();
+                PublicKey key = kid == null ? null : keys.get(kid);
+                if (key == null) {
+                    log.info("unknown id_token key id {}", kid);
+                    requestRefresh();
+                    return false;
+                }
+                // JWS carries the raw r||s form rather than DER.
+                Signature verifier = Signature.getInstance("SHA256withECDSAinP1363Format");
+                verifier.initVerify(key);
+                verifier.update(signingInput);
+                return verifier.verify(signature);
+            }
+            default:
+                log.info("unsupported id_token algorithm {}", algorithm);
+                return false;
+        }
+    }
+
+    private boolean isCurrent(IdTokenClaims claims) {
+        return Instant.now().minus(CLOCK_SKEW).isBefore(claims.expiresAt());
+    }
+
+    private void requestRefresh() {
+        long now = System.currentTimeMillis();
+        long last = lastRefresh.get();
+        if (now - last >= MIN_REFRESH_INTERVAL.toMillis() && lastRefresh.compareAndSet(last, now)) {
+            refresher.execute(this::refreshKeys);
+        }
+    }
+
+    private void refreshKeys() {
+        lastRefresh.set(System.currentTimeMillis());
+        try {
+            HttpRequest request = lineApiClient.request(LineEndpoint.JWKS).GET().build();
+            HttpResponse<byte[]> response = lineApiClient.send(LineEndpoint.JWKS, request,
+                    HttpResponse.BodyHandlers.ofByteArray());
+            if (response.statusCode() != HttpStatus.OK.value()) {
+                log.info("jwks response: {}", response.statusCode());
+                return;
+            }
+
+            Map<String, PublicKey> loaded = new HashMap<>();
+            for (JsonNode jwk : Utils.parseTree(response.body()).path("keys")) {
+                if ("EC".equals(jwk.path("kty").asText()) && "P-256".equals(jwk.path("crv").asText())) {
+                    loaded.put(jwk.path("kid").asText(), toPublicKey(jwk));
+                }
+            }
+            keys = Map.copyOf(loaded);
+            log.info("loaded {} id_token keys", loaded.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.info("jwks refresh failed, keeping {} keys: {}", keys.size(), e.toString());
+        }
+    }
+
+    private static PublicKey toPublicKey(JsonNode jwk) throws GeneralSecurityException {
+        AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+        parameters.init(new ECGenParameterSpec("secp256r1"));
+        ECParameterSpec spec = parameters.getParameterSpec(ECParameterSpec.class);
+        ECPoint point = new ECPoint(
+                new BigInteger(1, BASE64_URL.decode(jwk.path("x").asText())),
+                new BigInteger(1, BASE64_URL.decode(jwk.path("y").asText())));
+        return KeyFactory.getInstance("EC").generatePublic(new ECPublicKeySpec(point, spec));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+}
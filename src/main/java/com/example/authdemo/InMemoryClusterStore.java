@@ -0,0 +1,29 @@
+package com.example.authdemo;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Only shared by nodes in the same JVM: a single instance, or tests.
+public class InMemoryClusterStore implements ClusterStore {
+
+    private final Map<String, Instant> leases = new ConcurrentHashMap<>();
+
+    @Override
+    public void heartbeat(String nodeId, Instant leaseExpiresAt) {
+        leases.put(nodeId, leaseExpiresAt);
+    }
+
+    @Override
+    public Set<String> liveNodes(Instant now) {
+        leases.values().removeIf(expiresAt -> !expiresAt.isAfter(now));
+        return new TreeSet<>(leases.keySet());
+    }
+
+    @Override
+    public void leave(String nodeId) {
+        leases.remove(nodeId);
+    }
+}
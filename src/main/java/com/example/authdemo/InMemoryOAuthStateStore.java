@@ -0,0 +1,30 @@
+package com.example.authdemo;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.time.Duration;
+
+// Only shared by nodes in the same JVM: a single instance, or tests.
+public class InMemoryOAuthStateStore implements OAuthStateStore {
+
+    private final Cache<String, String> codes;
+
+    public InMemoryOAuthStateStore(Duration ttl, long maximumSize) {
+        this.codes = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    @Override
+    public boolean bind(String nonce, String code, long expiresAtMillis) {
+        String bound = codes.asMap().putIfAbsent(nonce, code);
+        return bound == null || bound.equals(code);
+    }
+
+    @Override
+    public void prune(long nowMillis) {
+        codes.cleanUp();
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.authdemo;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Keeps, next to the users, the IDs of notifiable users and the users in
+ * order of access token expiry, so those scans only visit matching users.
+ * Writes are serialized to keep the indexes in step with the users.
+ */
+public class InMemoryUserRepository implements UserRepository {
+
+    private final Map<String, UserInfo> db = new ConcurrentHashMap<>();
+
+    // Sorted so pages can be read straight from a tail view.
+    private final NavigableSet<String> notifiable = new ConcurrentSkipListSet<>();
+
+    // Sorted by expiry second, then ID: the order findExpiringBefore pages in.
+    private final NavigableSet<ExpiryKey> byExpiry = new ConcurrentSkipListSet<>();
+
+    // The key each user is filed under; UserInfo is saved after in-place
+    // changes, so the old expiry cannot be read back from it.
+    private final Map<String, ExpiryKey> expiryOf = new ConcurrentHashMap<>();
+
+    @Override
+    public synchronized void save(UserInfo user) {
+        db.put(user.getUserId(), user);
+        index(user);
+    }
+
+    @Override
+    public UserInfo find(String userId) {
+        return db.get(userId);
+    }
+
+    @Override
+    public List<UserInfo> findAll() {
+        return db.values().stream().toList();
+    }
+
+    @Override
+    public synchronized void remove(String userId) {
+        db.remove(userId);
+        notifiable.remove(userId);
+        unfile(userId);
+    }
+
+    @Override
+    public long count() {
+        return db.size();
+    }
+
+    @Override
+    public List<UserInfo> findNotifiable(String afterUserId, int limit) {
+        List<UserInfo> page = new ArrayList<>(Math.min(limit, 1024));
+        for (String userId : afterUserId == null ? notifiable : notifiable.tailSet(afterUserId, false)) {
+            UserInfo user = db.get(userId);
+            if (user != null && user.isNotifiable()) {
+                page.add(user);
+                if (page.size() == limit) {
+                    break;
+                }
+            }
+        }
+        return page;
+    }
+
+    // Reads the index from the cursor on, stopping at the bound or when the page is full.
+    @Override
+    public List<UserInfo> findExpiringBefore(Instant before, Instant afterExpiry, String afterUserId, int limit) {
+        long bound = before.getEpochSecond();
+        NavigableSet<ExpiryKey> from = afterExpiry == null ? byExpiry : byExpiry.tailSet(
+                new ExpiryKey(afterExpiry.getEpochSecond(), afterUserId == null ? "" : afterUserId), false);
+        List<UserInfo> page = new ArrayList<>(Math.min(limit, 1024));
+        for (ExpiryKey key : from) {
+            if (key.expiresAt() >= bound || page.size() == limit) {
+                break;
+            }
+            UserInfo user = db.get(key.userId());
+            if (user != null && user.getAccessTokenExpiresAt() != null
+                    && user.getAccessTokenExpiresAt().getEpochSecond() < bound) {
+                page.add(user);
+            }
+        }
+        return page;
+    }
+
+    private void index(UserInfo user) {
+        String userId = user.getUserId();
+        if (user.isNotifiable()) {
+            notifiable.add(userId);
+        } else {
+            notifiable.remove(userId);
+        }
+
+        Instant expiresAt = user.getAccessTokenExpiresAt();
+        ExpiryKey key = expiresAt == null ? null : new ExpiryKey(expiresAt.getEpochSecond(), userId);
+        if (key == null || !key.equals(expiryOf.get(userId))) {
+            // Filed under the new key first, so a concurrent page never misses the user.
+            if (key != null) {
+                byExpiry.add(key);
+            }
+            ExpiryKey old = key == null ? expiryOf.remove(userId) : expiryOf.put(userId, key);
+            if (old != null) {
+                byExpiry.remove(old);
+            }
+        }
+    }
+
+    private void unfile(String userId) {
+        ExpiryKey key = expiryOf.remove(userId);
+        if (key != null) {
+            byExpiry.remove(key);
+        }
+    }
+
+    private record ExpiryKey(long expiresAt, String userId) implements Comparable<ExpiryKey> {
+
+        @Override
+        public int compareTo(ExpiryKey other) {
+            int c = Long.compare(expiresAt, other.expiresAt);
+            return c != 0 ? c : userId.compareTo(other.userId);
+        }
+    }
+}
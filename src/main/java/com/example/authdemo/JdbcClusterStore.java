@@ -0,0 +1,36 @@
+package com.example.authdemo;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class JdbcClusterStore implements ClusterStore {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public JdbcClusterStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS cluster_node (" +
+                "node_id VARCHAR(128) PRIMARY KEY, " +
+                "lease_expires_at BIGINT NOT NULL)");
+    }
+
+    @Override
+    public void heartbeat(String nodeId, Instant leaseExpiresAt) {
+        jdbcTemplate.update("MERGE INTO cluster_node (node_id, lease_expires_at) KEY (node_id) VALUES (?, ?)",
+                nodeId, leaseExpiresAt.toEpochMilli());
+    }
+
+    @Override
+    public Set<String> liveNodes(Instant now) {
+        jdbcTemplate.update("DELETE FROM cluster_node WHERE lease_expires_at <= ?", now.toEpochMilli());
+        return new TreeSet<>(jdbcTemplate.queryForList("SELECT node_id FROM cluster_node", String.class));
+    }
+
+    @Override
+    public void leave(String nodeId) {
+        jdbcTemplate.update("DELETE FROM cluster_node WHERE node_id = ?", nodeId);
+    }
+}
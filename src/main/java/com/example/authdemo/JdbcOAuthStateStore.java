@@ -0,0 +1,37 @@
+package com.example.authdemo;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+public class JdbcOAuthStateStore implements OAuthStateStore {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public JdbcOAuthStateStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS oauth_state_code (" +
+                "nonce VARCHAR(32) PRIMARY KEY, " +
+                "code VARCHAR(512) NOT NULL, " +
+                "expires_at BIGINT NOT NULL)");
+    }
+
+    @Override
+    public boolean bind(String nonce, String code, long expiresAtMillis) {
+        try {
+            jdbcTemplate.update("INSERT INTO oauth_state_code (nonce, code, expires_at) VALUES (?, ?, ?)",
+                    nonce, code, expiresAtMillis);
+            return true;
+        } catch (DuplicateKeyException e) {
+            List<String> bound = jdbcTemplate.queryForList(
+                    "SELECT code FROM oauth_state_code WHERE nonce = ?", String.class, nonce);
+            return !bound.isEmpty() && bound.get(0).equals(code);
+        }
+    }
+
+    @Override
+    public void prune(long nowMillis) {
+        jdbcTemplate.update("DELETE FROM oauth_state_code WHERE expires_at <= ?", nowMillis);
+    }
+}
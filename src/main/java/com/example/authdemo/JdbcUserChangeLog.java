@@ -0,0 +1,51 @@
+package com.example.authdemo;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Which users were written, and when, by each process sharing the user
+ * table. A {@link CachingUserRepository} records its flushes here and evicts
+ * the users other processes wrote, so no node keeps serving a stale copy.
+ * Holds one row per user and writer; rows past their use are pruned.
+ */
+public class JdbcUserChangeLog {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // This process; its own writes need no eviction.
+    private final String origin = UUID.randomUUID().toString();
+
+    public JdbcUserChangeLog(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS user_info_change (" +
+                "user_id VARCHAR(64) NOT NULL, " +
+                "origin VARCHAR(36) NOT NULL, " +
+                "changed_at BIGINT NOT NULL, " +
+                "PRIMARY KEY (user_id, origin))");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS user_info_change_at ON user_info_change (changed_at)");
+    }
+
+    public void record(Collection<String> userIds, long now) {
+        List<Object[]> rows = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            rows.add(new Object[]{userId, origin, now});
+        }
+        jdbcTemplate.batchUpdate("MERGE INTO user_info_change (user_id, origin, changed_at) " +
+                "KEY (user_id, origin) VALUES (?, ?, ?)", rows);
+    }
+
+    // Users other processes wrote at or after since (epoch milliseconds).
+    public List<String> changedByOthersSince(long since) {
+        return jdbcTemplate.queryForList("SELECT DISTINCT user_id FROM user_info_change " +
+                "WHERE changed_at >= ? AND origin <> ?", String.class, since, origin);
+    }
+
+    public void prune(long before) {
+        jdbcTemplate.update("DELETE FROM user_info_change WHERE changed_at < ?", before);
+    }
+}
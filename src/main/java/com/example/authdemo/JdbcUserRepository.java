@@ -0,0 +1,138 @@
+package com.example.authdemo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+@Slf4j
+public class JdbcUserRepository implements UserRepository {
+
+    private static final String COLUMNS = "user_id, display_name, token_issuer, id_token, token_type, " +
+            "access_token, refresh_token, bot_access_token, access_token_expires_at, notify_revoked";
+
+    private static final RowMapper<UserInfo> ROW_MAPPER = (rs, rowNum) -> {
+        UserInfo user = new UserInfo();
+        user.setUserId(rs.getString("user_id"));
+        user.setDisplayName(rs.getString("display_name"));
+        user.setTokenIssuer(rs.getString("token_issuer"));
+        user.setIdToken(rs.getString("id_token"));
+        user.setTokenType(rs.getString("token_type"));
+        user.setAccessToken(rs.getString("access_token"));
+        user.setRefreshToken(rs.getString("refresh_token"));
+        user.setBotAccessToken(rs.getString("bot_access_token"));
+        long expiresAt = rs.getLong("access_token_expires_at");
+        user.setAccessTokenExpiresAt(rs.wasNull() ? null : Instant.ofEpochSecond(expiresAt));
+        user.setNotifyRevoked(rs.getBoolean("notify_revoked"));
+        return user;
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public JdbcUserRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS user_info (" +
+                "user_id VARCHAR(64) PRIMARY KEY, " +
+                "display_name VARCHAR(255), " +
+                "token_issuer VARCHAR(255), " +
+                "id_token VARCHAR(8192), " +
+                "token_type VARCHAR(32), " +
+                "access_token VARCHAR(2048), " +
+                "refresh_token VARCHAR(2048), " +
+                "bot_access_token VARCHAR(2048))");
+        jdbcTemplate.execute("ALTER TABLE user_info ADD COLUMN IF NOT EXISTS access_token_expires_at BIGINT");
+        jdbcTemplate.execute("ALTER TABLE user_info ADD COLUMN IF NOT EXISTS notify_revoked BOOLEAN DEFAULT FALSE NOT NULL");
+        // Kept by the database itself, so the index is current whichever node wrote the row.
+        jdbcTemplate.execute("ALTER TABLE user_info ADD COLUMN IF NOT EXISTS notifiable BOOLEAN " +
+                "GENERATED ALWAYS AS (bot_access_token IS NOT NULL AND NOT notify_revoked)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS user_info_notifiable ON user_info (notifiable, user_id)");
+        // Read in index order from the cursor up to the expiry bound; no sort, and a page stops at its limit.
+        jdbcTemplate.execute("DROP INDEX IF EXISTS user_info_expiry");
+        jdbcTemplate.execute("DROP INDEX IF EXISTS user_info_expiry_by_id");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS user_info_expiry_at_id " +
+                "ON user_info (access_token_expires_at, user_id)");
+    }
+
+    @Override
+    public void save(UserInfo user) {
+        saveAll(List.of(user));
+    }
+
+    @Override
+    public UserInfo find(String userId) {
+        List<UserInfo> users = jdbcTemplate.query(
+                "SELECT " + COLUMNS + " FROM user_info WHERE user_id = ?", ROW_MAPPER, userId);
+        return users.isEmpty() ? null : users.get(0);
+    }
+
+    @Override
+    public List<UserInfo> findAll() {
+        return jdbcTemplate.query("SELECT " + COLUMNS + " FROM user_info", ROW_MAPPER);
+    }
+
+    @Override
+    public List<UserInfo> findNotifiable(String afterUserId, int limit) {
+        if (afterUserId == null) {
+            return jdbcTemplate.query("SELECT " + COLUMNS + " FROM user_info " +
+                    "WHERE notifiable = TRUE ORDER BY user_id LIMIT ?", ROW_MAPPER, limit);
+        }
+        return jdbcTemplate.query("SELECT " + COLUMNS + " FROM user_info " +
+                "WHERE notifiable = TRUE AND user_id > ? ORDER BY user_id LIMIT ?",
+                ROW_MAPPER, afterUserId, limit);
+    }
+
+    @Override
+    public List<UserInfo> findExpiringBefore(Instant before, Instant afterExpiry, String afterUserId, int limit) {
+        if (afterExpiry == null) {
+            return jdbcTemplate.query("SELECT " + COLUMNS + " FROM user_info USE INDEX (user_info_expiry_at_id) " +
+                            "WHERE access_token_expires_at < ? ORDER BY access_token_expires_at, user_id LIMIT ?",
+                    ROW_MAPPER, before.getEpochSecond(), limit);
+        }
+        // The plain >= gives the index its start; the row comparison skips the ties already read.
+        long after = afterExpiry.getEpochSecond();
+        return jdbcTemplate.query("SELECT " + COLUMNS + " FROM user_info USE INDEX (user_info_expiry_at_id) " +
+                        "WHERE access_token_expires_at < ? AND access_token_expires_at >= ? " +
+                        "AND (access_token_expires_at, user_id) > (?, ?) " +
+                        "ORDER BY access_token_expires_at, user_id LIMIT ?",
+                ROW_MAPPER, before.getEpochSecond(), after, after, afterUserId == null ? "" : afterUserId, limit);
+    }
+
+    @Override
+    public void remove(String userId) {
+        jdbcTemplate.update("DELETE FROM user_info WHERE user_id = ?", userId);
+    }
+
+    @Override
+    public long count() {
+        Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user_info", Long.class);
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public void saveAll(Collection<UserInfo> users) {
+        List<Object[]> rows = new ArrayList<>(users.size());
+        for (UserInfo user : users) {
+            rows.add(new Object[]{
+                    user.getUserId(), user.getDisplayName(), user.getTokenIssuer(), user.getIdToken(),
+                    user.getTokenType(), user.getAccessToken(), user.getRefreshToken(), user.getBotAccessToken(),
+                    user.getAccessTokenExpiresAt() == null ? null : user.getAccessTokenExpiresAt().getEpochSecond(),
+                    user.isNotifyRevoked()
+            });
+        }
+        jdbcTemplate.batchUpdate("MERGE INTO user_info (" + COLUMNS + ") KEY (user_id) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", rows);
+    }
+
+    @Override
+    public void removeAll(Collection<String> userIds) {
+        List<Object[]> rows = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            rows.add(new Object[]{userId});
+        }
+        jdbcTemplate.batchUpdate("DELETE FROM user_info WHERE user_id = ?", rows);
+    }
+}
@@ -0,0 +1,4 @@
+package com.example.authdemo;
+
+public record JwtHeader(String typ, String alg, String kid) {
+}
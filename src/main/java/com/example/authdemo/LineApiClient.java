@@ -0,0 +1,260 @@
+package com.example.authdemo;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * The single HTTP client for every call to LINE. Requests start from a
+ * prebuilt template per {@link LineEndpoint} (URI, content type, timeout),
+ * and every call is timed into that endpoint's {@link EndpointStats}.
+ *
+ * <p>Each {@link UpstreamGroup} has its own circuit breaker and a bulkhead
+ * capping its concurrent calls. A call the group cannot take fails straight
+ * away with {@link UpstreamUnavailableException} rather than waiting, so a
+ * degraded LINE host costs its callers nothing and leaves the other groups'
+ * capacity alone. Exceptions and 5xx responses count as failures.
+ */
+@Slf4j
+@Component
+public class LineApiClient {
+
+    private final HttpClient httpClient;
+
+    private final ExecutorService executor;
+
+    private final Map<LineEndpoint, HttpRequest.Builder> templates = new EnumMap<>(LineEndpoint.class);
+
+    private final Map<LineEndpoint, EndpointStats> stats = new EnumMap<>(LineEndpoint.class);
+
+    private final Map<UpstreamGroup, CircuitBreaker> breakers = new EnumMap<>(UpstreamGroup.class);
+
+    private final Map<UpstreamGroup, Semaphore> bulkheads = new EnumMap<>(UpstreamGroup.class);
+
+    @Autowired
+    public LineApiClient(@Value("${line.http.version:HTTP_2}") HttpClient.Version version,
+                         @Value("${line.http.executor_threads:16}") int executorThreads,
+                         @Value("${line.http.connect_timeout_ms:3000}") long connectTimeoutMs,
+                         @Value("${line.http.request_timeout_ms:10000}") long requestTimeoutMs,
+                         @Value("${line.base_uri.api:https://api.line.me}") String apiBaseUri,
+                         @Value("${line.base_uri.notify_api:https://notify-api.line.me}") String notifyApiBaseUri,
+                         @Value("${line.base_uri.notify_bot:https://notify-bot.line.me}") String notifyBotBaseUri,
+                         @Value("${line.jwks_uri:}") String jwksUri,
+                         @Value("${line.upstream.window:20}") int window,
+                         @Value("${line.upstream.min_calls:10}") int minCalls,
+                         @Value("${line.upstream.failure_rate_percent:50}") int failureRatePercent,
+                         @Value("${line.upstream.open_ms:30000}") long openMs,
+                         @Value("${line.upstream.half_open_calls:3}") int halfOpenCalls,
+                         @Value("${line.upstream.max_concurrent.login:32}") int maxLogin,
+                         @Value("${line.upstream.max_concurrent.profile:32}") int maxProfile,
+                         @Value("${line.upstream.max_concurrent.verify:16}") int maxVerify,
+                         @Value("${line.upstream.max_concurrent.notify:64}") int maxNotify,
+                         @Value("${line.upstream.max_concurrent.notify_account:16}") int maxNotifyAccount) {
+        this(version, executorThreads, connectTimeoutMs, requestTimeoutMs,
+                withJwksUri(rebase(Map.of("api.line.me", apiBaseUri, "notify-api.line.me", notifyApiBaseUri,
+                        "notify-bot.line.me", notifyBotBaseUri)), jwksUri),
+                new CircuitBreaker.Settings(window, minCalls, failureRatePercent, Duration.ofMillis(openMs),
+                        halfOpenCalls),
+                Map.of(UpstreamGroup.LOGIN, maxLogin, UpstreamGroup.PROFILE, maxProfile,
+                        UpstreamGroup.VERIFY, maxVerify, UpstreamGroup.NOTIFY, maxNotify,
+                        UpstreamGroup.NOTIFY_ACCOUNT, maxNotifyAccount));
+    }
+
+    /**
+     * For benchmarks and tests that point the client at a local stand-in
+     * for LINE; breakers and bulkheads use the defaults.
+     */
+    public LineApiClient(HttpClient.Version version, int executorThreads, long connectTimeoutMs,
+                         long requestTimeoutMs, Function<LineEndpoint, URI> uriOf) {
+        this(version, executorThreads, connectTimeoutMs, requestTimeoutMs, uriOf,
+                new CircuitBreaker.Settings(20, 10, 50, Duration.ofSeconds(30), 3),
+                Map.of(UpstreamGroup.LOGIN, 32, UpstreamGroup.PROFILE, 32,
+                        UpstreamGroup.VERIFY, 16, UpstreamGroup.NOTIFY, 64, UpstreamGroup.NOTIFY_ACCOUNT, 16));
+    }
+
+    public LineApiClient(HttpClient.Version version, int executorThreads, long connectTimeoutMs,
+                         long requestTimeoutMs, Function<LineEndpoint, URI> uriOf,
+                         CircuitBreaker.Settings breakerSettings, Map<UpstreamGroup, Integer> maxConcurrent) {
+        this.executor = Executors.newFixedThreadPool(Math.max(1, executorThreads),
+                new ThreadFactoryBuilder().setNameFormat("line-http-%d").setDaemon(true).build());
+        // HTTP_2 falls back to HTTP/1.1 on hosts that don't negotiate it.
+        this.httpClient = HttpClient.newBuilder()
+                .version(version)
+                .executor(executor)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
+
+        Duration requestTimeout = Duration.ofMillis(requestTimeoutMs);
+        for (LineEndpoint endpoint : LineEndpoint.values()) {
+            templates.put(endpoint, HttpRequest.newBuilder()
+                    .uri(uriOf.apply(endpoint))
+                    .header("Content-Type", endpoint.getContentType())
+                    .timeout(requestTimeout));
+            stats.put(endpoint, new EndpointStats());
+        }
+        for (UpstreamGroup group : UpstreamGroup.values()) {
+            breakers.put(group, new CircuitBreaker(breakerSettings));
+            bulkheads.put(group, new Semaphore(Math.max(1, maxConcurrent.get(group))));
+        }
+    }
+
+    /**
+     * Moves each endpoint to the base URI configured for its LINE host,
+     * keeping the path; e.g. to point the client at a simulator.
+     */
+    public static Function<LineEndpoint, URI> rebase(Map<String, String> baseUriByHost) {
+        return endpoint -> {
+            URI uri = URI.create(endpoint.getUri());
+            String base = baseUriByHost.get(uri.getHost());
+            if (base == null || base.isBlank()) {
+                return uri;
+            }
+            return URI.create((base.endsWith("/") ? base.substring(0, base.length() - 1) : base) + uri.getPath());
+        };
+    }
+
+    // line.jwks_uri, when set, overrides where the ID token keys are fetched from.
+    private static Function<LineEndpoint, URI> withJwksUri(Function<LineEndpoint, URI> uriOf, String jwksUri) {
+        if (jwksUri == null || jwksUri.isBlank()) {
+            return uriOf;
+        }
+        URI jwks = URI.create(jwksUri);
+        return endpoint -> endpoint == LineEndpoint.JWKS ? jwks : uriOf.apply(endpoint);
+    }
+
+    /**
+     * A fresh copy of the endpoint's template; callers add auth headers and
+     * the body, and may override the timeout.
+     */
+    public HttpRequest.Builder request(LineEndpoint endpoint) {
+        return templates.get(endpoint).copy();
+    }
+
+    public HttpRequest get(LineEndpoint endpoint, String authorization) {
+        return request(endpoint)
+                .header("Authorization", authorization)
+                .GET()
+                .build();
+    }
+
+    public HttpRequest post(LineEndpoint endpoint, String authorization, String formBody) {
+        HttpRequest.Builder builder = request(endpoint);
+        if (authorization != null) {
+            builder.header("Authorization", authorization);
+        }
+        return builder.POST(HttpRequest.BodyPublishers.ofString(formBody)).build();
+    }
+
+    public HttpResponse<String> send(LineEndpoint endpoint, HttpRequest request)
+            throws IOException, InterruptedException {
+        return send(endpoint, request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    public <T> HttpResponse<T> send(LineEndpoint endpoint, HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        EndpointStats endpointStats = stats.get(endpoint);
+        long permit = acquire(endpoint);
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            HttpResponse<T> response = httpClient.send(request, handler);
+            endpointStats.record(System.nanoTime() - start, response.statusCode());
+            success = response.statusCode() < 500;
+            return response;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            endpointStats.recordFailure(System.nanoTime() - start);
+            throw e;
+        } finally {
+            release(endpoint, permit, success);
+        }
+    }
+
+    public CompletableFuture<HttpResponse<String>> sendAsync(LineEndpoint endpoint, HttpRequest request) {
+        return sendAsync(endpoint, request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(LineEndpoint endpoint, HttpRequest request,
+                                                            HttpResponse.BodyHandler<T> handler) {
+        EndpointStats endpointStats = stats.get(endpoint);
+        long permit;
+        try {
+            permit = acquire(endpoint);
+        } catch (UpstreamUnavailableException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<T>> future;
+        try {
+            future = httpClient.sendAsync(request, handler);
+        } catch (RuntimeException e) {
+            release(endpoint, permit, false);
+            throw e;
+        }
+        return future.whenComplete((response, error) -> {
+            if (error != null) {
+                endpointStats.recordFailure(System.nanoTime() - start);
+            } else {
+                endpointStats.record(System.nanoTime() - start, response.statusCode());
+            }
+            release(endpoint, permit, error == null && response.statusCode() < 500);
+        });
+    }
+
+    // Takes a bulkhead slot and a breaker permit, or neither.
+    private long acquire(LineEndpoint endpoint) throws UpstreamUnavailableException {
+        UpstreamGroup group = endpoint.getGroup();
+        Semaphore bulkhead = bulkheads.get(group);
+        if (!bulkhead.tryAcquire()) {
+            throw new UpstreamUnavailableException(group + " bulkhead full, " + endpoint + " not called");
+        }
+        long permit = breakers.get(group).tryAcquire();
+        if (permit == CircuitBreaker.REJECTED) {
+            bulkhead.release();
+            throw new UpstreamUnavailableException(group + " circuit open, " + endpoint + " not called");
+        }
+        return permit;
+    }
+
+    private void release(LineEndpoint endpoint, long permit, boolean success) {
+        breakers.get(endpoint.getGroup()).onResult(permit, success);
+        bulkheads.get(endpoint.getGroup()).release();
+    }
+
+    public boolean isAvailable(UpstreamGroup group) {
+        return breakers.get(group).getState() != CircuitBreaker.State.OPEN;
+    }
+
+    public Map<UpstreamGroup, CircuitBreaker.State> getCircuits() {
+        Map<UpstreamGroup, CircuitBreaker.State> result = new EnumMap<>(UpstreamGroup.class);
+        breakers.forEach((group, breaker) -> result.put(group, breaker.getState()));
+        return result;
+    }
+
+    public Map<LineEndpoint, EndpointStats.Snapshot> getStats() {
+        Map<LineEndpoint, EndpointStats.Snapshot> result = new EnumMap<>(LineEndpoint.class);
+        stats.forEach((endpoint, s) -> result.put(endpoint, s.snapshot()));
+        return result;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.authdemo;
+
+/**
+ * The fixed LINE endpoints this service calls.
+ */
+public enum LineEndpoint {
+
+    LOGIN_TOKEN("POST", "https://api.line.me/oauth2/v2.1/token", UpstreamGroup.LOGIN),
+    PROFILE("GET", "https://api.line.me/v2/profile", UpstreamGroup.PROFILE),
+    VERIFY("POST", "https://api.line.me/v2/oauth/verify", UpstreamGroup.VERIFY),
+    REFRESH("POST", "https://api.line.me/v2/oauth/accessToken", UpstreamGroup.VERIFY),
+    REVOKE("POST", "https://api.line.me/v2/oauth/revoke", UpstreamGroup.VERIFY),
+    JWKS("GET", "https://api.line.me/oauth2/v2.1/certs", UpstreamGroup.VERIFY),
+    NOTIFY_TOKEN("POST", "https://notify-bot.line.me/oauth/token", UpstreamGroup.LOGIN),
+    NOTIFY("POST", "https://notify-api.line.me/api/notify", UpstreamGroup.NOTIFY),
+    NOTIFY_STATUS("GET", "https://notify-api.line.me/api/status", UpstreamGroup.NOTIFY_ACCOUNT),
+    NOTIFY_REVOKE("POST", "https://notify-api.line.me/api/revoke", UpstreamGroup.NOTIFY_ACCOUNT);
+
+    private final String method;
+
+    private final String uri;
+
+    private final UpstreamGroup group;
+
+    LineEndpoint(String method, String uri, UpstreamGroup group) {
+        this.method = method;
+        this.uri = uri;
+        this.group = group;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public UpstreamGroup getGroup() {
+        return group;
+    }
+
+    public String getContentType() {
+        return "POST".equals(method) ? "application/x-www-form-urlencoded" : "application/json";
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.authdemo;
+
+/**
+ * https://developers.line.biz/en/reference/line-login/#get-user-profile
+ */
+public record LineProfile(String userId, String displayName, String pictureUrl, String statusMessage) {
+}
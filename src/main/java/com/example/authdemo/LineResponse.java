@@ -0,0 +1,13 @@
+package com.example.authdemo;
+
+/**
+ * A LINE response decoded by {@link Utils#jsonBody}: {@code body} for a 200,
+ * otherwise the raw {@code errorBody} to log or pass through.
+ */
+public record LineResponse<T>(T body, String errorBody) {
+
+    @Override
+    public String toString() {
+        return body != null ? String.valueOf(body) : errorBody;
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.authdemo;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Token endpoint response for login, refresh and the Notify bot exchange
+ * (which only fills {@code accessToken}).
+ *
+ * https://developers.line.biz/en/reference/line-login/#issue-token-response
+ */
+public record LineTokenResponse(
+        @JsonProperty("access_token") String accessToken,
+        @JsonProperty("expires_in") long expiresIn,
+        @JsonProperty("id_token") String idToken,
+        @JsonProperty("refresh_token") String refreshToken,
+        @JsonProperty("scope") String scope,
+        @JsonProperty("token_type") String tokenType) {
+}
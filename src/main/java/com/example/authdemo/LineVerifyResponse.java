@@ -0,0 +1,12 @@
+package com.example.authdemo;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * https://developers.line.biz/en/reference/line-login/#verify-access-token
+ */
+public record LineVerifyResponse(
+        @JsonProperty("scope") String scope,
+        @JsonProperty("client_id") String clientId,
+        @JsonProperty("expires_in") long expiresIn) {
+}
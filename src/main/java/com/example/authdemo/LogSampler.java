@@ -0,0 +1,27 @@
+package com.example.authdemo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets one in every {@code rate} events through, for INFO lines on per-user
+ * paths whose volume would otherwise grow with the user count. Turn the
+ * logger up to DEBUG (e.g. through /actuator/loggers) to see every event.
+ */
+public final class LogSampler {
+
+    private final long rate;
+
+    private final AtomicLong events = new AtomicLong();
+
+    public LogSampler(long rate) {
+        this.rate = Math.max(1, rate);
+    }
+
+    public boolean sample() {
+        return events.getAndIncrement() % rate == 0;
+    }
+
+    public long getRate() {
+        return rate;
+    }
+}
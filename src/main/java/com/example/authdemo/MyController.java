@@ -1,21 +1,28 @@
 package com.example.authdemo;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseCookie;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
-import java.net.URI;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.time.Duration;
-import java.util.Base64;
+import java.time.Instant;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 @Slf4j
 @CrossOrigin("*/*")
@@ -23,10 +30,35 @@ import java.util.Map;
 @RequestMapping("/v1")
 public class MyController {
 
+    // Hold the nonce of the state issued to this browser, per flow, until the callback.
+    private static final String LOGIN_STATE_COOKIE = "line_login_state";
+
+    private static final String BOT_STATE_COOKIE = "line_bot_state";
+
+    // Set by the login callback; proves which user this browser logged in as.
+    private static final String SESSION_COOKIE = "line_session";
+
     private UserService userService;
 
     private NotifyService service;
 
+    private NotifyJobService jobService;
+
+    private NotifyScheduler scheduler;
+
+    private IdTokenVerifier idTokenVerifier;
+
+    private LineApiClient lineApiClient;
+
+    private AppMetrics metrics;
+
+    private NotifyStatusCache statusCache;
+
+    private OAuthCallbackStore callbackStore;
+
+    // false accepts callbacks without an issued state, with the bot flow's state taken as the userId.
+    private boolean requireState;
+
     @Value("${frontend_server_uri}")
     private String frontendServerUri;
 
@@ -45,37 +77,68 @@ public class MyController {
     @Value("${linebot.client_secret}")
     private String botClientSecret;
 
+    private Duration tokenTimeout;
+
+    private Duration profileTimeout;
+
     @Autowired
-    public MyController(UserService userService, NotifyService service) {
+    public MyController(UserService userService, NotifyService service, NotifyJobService jobService,
+                        NotifyScheduler scheduler, IdTokenVerifier idTokenVerifier,
+                        LineApiClient lineApiClient, AppMetrics metrics, NotifyStatusCache statusCache,
+                        OAuthCallbackStore callbackStore,
+                        @Value("${line.token_timeout_ms:5000}") long tokenTimeoutMs,
+                        @Value("${line.profile_timeout_ms:3000}") long profileTimeoutMs,
+                        @Value("${line.callback.require_state:false}") boolean requireState) {
         this.userService = userService;
         this.service = service;
+        this.jobService = jobService;
+        this.scheduler = scheduler;
+        this.idTokenVerifier = idTokenVerifier;
+        this.lineApiClient = lineApiClient;
+        this.metrics = metrics;
+        this.statusCache = statusCache;
+        this.callbackStore = callbackStore;
+        this.requireState = requireState;
+        this.tokenTimeout = Duration.ofMillis(tokenTimeoutMs);
+        this.profileTimeout = Duration.ofMillis(profileTimeoutMs);
     }
 
+    // The login callback never blocks a servlet thread on LINE: both upstream
+    // calls run on the HTTP client and the response is completed from there.
     @GetMapping("/linecallback")
-    public ResponseEntity<String> linecallback(
+    public CompletableFuture<ResponseEntity<String>> linecallback(
             @RequestParam(value = "code") String code,
             @RequestParam(value = "state", required = false) String state,
             @RequestParam(value = "friendship_status_changed", required = false) boolean friendshipStatusChanged,
             @RequestParam(value = "liffClientId", required = false) String liffClientId,
             @RequestParam(value = "liffRedirectUri", required = false) String liffRedirectUri,
             @RequestParam(value = "error", required = false) String error,
-            @RequestParam(value = "error_description", required = false) String errorDescription
+            @RequestParam(value = "error_description", required = false) String errorDescription,
+            @CookieValue(value = LOGIN_STATE_COOKIE, required = false) String browserNonce
     ) throws IOException, InterruptedException {
-        log.info("Received LINE login auth code: {}", code);
+        log.info("Received LINE login callback");
+        long start = System.nanoTime();
 
         if (error != null) {
             log.info("callback endpoint receives an error: {} {}", error, errorDescription);
-            Map<String, String> errorObject = new HashMap<>();
-            errorObject.put("error", error);
-            errorObject.put("error_description", errorDescription);
-            return ResponseEntity.status(400)
-                    .body(Utils.stringify(errorObject));
+            metrics.recordCallback(AppMetrics.Callback.LOGIN, 400, System.nanoTime() - start);
+            return CompletableFuture.completedFuture(errorResponse(400, error, errorDescription));
+        }
+        if (callbackStore.validateState(OAuthCallbackStore.Flow.LOGIN, state, code, browserNonce) == null && requireState) {
+            log.info("login callback with an invalid state");
+            metrics.recordCallback(AppMetrics.Callback.LOGIN, 400, System.nanoTime() - start);
+            return CompletableFuture.completedFuture(invalidState());
         }
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("https://api.line.me/oauth2/v2.1/token"))
-                .header("Content-Type", "application/x-www-form-urlencoded")
-                .timeout(Duration.ofMinutes(1))
+        return callbackStore.exchangeOnce(OAuthCallbackStore.Flow.LOGIN, code, () -> exchangeLoginCode(code))
+                .exceptionally(e -> upstreamError("login", e))
+                .whenComplete((response, e) -> metrics.recordCallback(AppMetrics.Callback.LOGIN,
+                        response != null ? response.getStatusCodeValue() : 500, System.nanoTime() - start));
+    }
+
+    private CompletableFuture<ResponseEntity<String>> exchangeLoginCode(String code) {
+        HttpRequest request = lineApiClient.request(LineEndpoint.LOGIN_TOKEN)
+                .timeout(tokenTimeout)
                 .POST(HttpRequest.BodyPublishers.ofString(
                         "grant_type=authorization_code" +
                         "&code=" + code +
@@ -84,93 +147,205 @@ public class MyController {
                         "&client_secret=" + clientSecret
                 )).build();
 
-        HttpResponse<String> response = Utils.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        log.info("token endpoint response: {}\n{}", response.statusCode(), response.body());
-        if (response.statusCode() != 200) {
-            return ResponseEntity.status(response.statusCode())
-                    .body(response.body());
+        return lineApiClient.sendAsync(LineEndpoint.LOGIN_TOKEN, request, Utils.jsonBody(LineTokenResponse.class))
+                .thenCompose(response -> {
+                    log.debug("token endpoint response: {}\n{}", response.statusCode(), response.body());
+                    if (response.statusCode() != 200) {
+                        return CompletableFuture.completedFuture(ResponseEntity.status(response.statusCode())
+                                .body(response.body().errorBody()));
+                    }
+
+                    UserInfo user = toUserInfo(response.body().body());
+                    log.info("user: {}", user);
+
+                    // A verified id_token already carries the profile; only fall back to the
+                    // profile endpoint when it is missing or could not be verified.
+                    extractJwt(user);
+                    CompletableFuture<Void> profile = user.getUserId() != null && user.getDisplayName() != null
+                            ? CompletableFuture.completedFuture(null)
+                            : getUserProfile(user);
+
+                    return profile.thenApply(v -> {
+                        userService.saveLogin(user);
+                        ResponseCookie session = cookie(SESSION_COOKIE,
+                                callbackStore.issueSession(user.getUserId()), callbackStore.getSessionTtl());
+                        return ResponseEntity
+                                .status(HttpStatus.TEMPORARY_REDIRECT)
+                                .header("Location", frontendServerUri + "/#callback=line&userid=" + user.getUserId())
+                                .header(HttpHeaders.SET_COOKIE, session.toString())
+                                .<String>build();
+                    });
+                });
+    }
+
+    /**
+     * Issues the state to send to LINE's authorization endpoint, and sets its
+     * nonce in a cookie; the callback rejects any state not issued here to
+     * the same browser. The bot flow's state is bound to the user connecting
+     * LINE Notify, and only issued to a browser logged in as that user.
+     */
+    @GetMapping("/oauth/state")
+    public ResponseEntity<String> issueState(
+            @RequestParam(value = "flow", defaultValue = "login") String flow,
+            @RequestParam(value = "userId", required = false) String userId,
+            @CookieValue(value = SESSION_COOKIE, required = false) String session
+    ) throws IOException {
+        String state;
+        String cookieName;
+        if ("bot".equals(flow)) {
+            if (userId == null || !userId.equals(callbackStore.sessionUser(session))
+                    || userService.getUserInfo(userId) == null) {
+                return errorResponse(401, "Not Authorized", "Login with LINE first.");
+            }
+            state = callbackStore.issueState(OAuthCallbackStore.Flow.BOT, userId);
+            cookieName = BOT_STATE_COOKIE;
+        } else if ("login".equals(flow)) {
+            state = callbackStore.issueState(OAuthCallbackStore.Flow.LOGIN, null);
+            cookieName = LOGIN_STATE_COOKIE;
+        } else {
+            return errorResponse(400, "invalid_request", "flow must be login or bot.");
         }
+        Map<String, String> body = new HashMap<>();
+        body.put("state", state);
+        ResponseCookie nonce = cookie(cookieName, OAuthCallbackStore.browserNonce(state), callbackStore.getStateTtl());
+        return ResponseEntity.ok()
+                .header(HttpHeaders.SET_COOKIE, nonce.toString())
+                .body(Utils.stringify(body));
+    }
 
-        Map<String, String> data = Utils.parse(response.body());
-        UserInfo user = new UserInfo();
-        user.setTokenType(data.get("token_type"));
-        user.setIdToken(data.get("id_token"));
-        user.setAccessToken(data.get("access_token"));
-        user.setRefreshToken(data.get("refresh_token"));
-        log.info("user: {}", user);
+    // Lax, not Strict: the callbacks arrive as top-level redirects from LINE.
+    private ResponseCookie cookie(String name, String value, Duration maxAge) {
+        return ResponseCookie.from(name, value)
+                .httpOnly(true)
+                .secure(backendServerUri.startsWith("https:"))
+                .sameSite("Lax")
+                .path("/v1")
+                .maxAge(maxAge)
+                .build();
+    }
 
-        getUserProfile(user);
-        extractJwt(user);
+    private static ResponseEntity<String> invalidState() {
+        return errorResponse(400, "invalid_state", "The login request expired or did not come from here; start again.");
+    }
 
-        userService.saveUserInfo(user);
+    private static ResponseEntity<String> duplicateCallback() {
+        return errorResponse(HttpStatus.CONFLICT.value(), "invalid_grant",
+                "This login was already completed; start again.");
+    }
 
-        return ResponseEntity
-                .status(HttpStatus.TEMPORARY_REDIRECT)
-                .header("Location", frontendServerUri + "/#callback=line&userid=" + user.getUserId())
-                .build();
+    private UserInfo toUserInfo(LineTokenResponse data) {
+        UserInfo user = new UserInfo();
+        user.setTokenType(data.tokenType());
+        user.setIdToken(data.idToken());
+        user.setAccessToken(data.accessToken());
+        user.setRefreshToken(data.refreshToken());
+        user.setAccessTokenExpiresAt(Instant.now().plusSeconds(data.expiresIn()));
+        return user;
     }
 
-    private void getUserProfile(UserInfo user) throws IOException, InterruptedException {
+    private CompletableFuture<Void> getUserProfile(UserInfo user) {
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("https://api.line.me/v2/profile"))
+        HttpRequest request = lineApiClient.request(LineEndpoint.PROFILE)
                 .header("Authorization", user.getTokenType() + " " + user.getAccessToken())
-                .header("Content-Type", "application/json")
-                .timeout(Duration.ofMinutes(1))
+                .timeout(profileTimeout)
                 .GET()
                 .build();
 
-        HttpResponse<String> response = Utils.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        if (response.statusCode() == HttpStatus.OK.value()) {
-            Map<String, String> data = Utils.parse(response.body());
-            user.setUserId(data.get("userId"));
-            user.setDisplayName(data.get("displayName"));
-        }
+        return lineApiClient.sendAsync(LineEndpoint.PROFILE, request, Utils.jsonBody(LineProfile.class))
+                .thenAccept(response -> {
+                    if (response.statusCode() == HttpStatus.OK.value()) {
+                        LineProfile profile = response.body().body();
+                        user.setUserId(profile.userId());
+                        user.setDisplayName(profile.displayName());
+                    }
+                });
     }
 
-    private void extractJwt(UserInfo user) throws IOException {
+    private void extractJwt(UserInfo user) {
         String idToken = user.getIdToken();
         if (idToken == null) {
             log.info("There is no id_token");
             return;
         }
+        IdTokenClaims claims = idTokenVerifier.verify(idToken);
+        user.clearIdToken();
+        if (claims == null) {
+            return;
+        }
+        log.debug("id_token claims: {}", claims);
+        user.setTokenIssuer(claims.issuer());
+        user.setUserId(claims.subject());
+        user.setDisplayName(claims.name());
+    }
+
+    // Only failures talking to LINE are the upstream's fault; anything else is a bug here.
+    private ResponseEntity<String> upstreamError(String stage, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof UpstreamUnavailableException) {
+            return upstreamUnavailable((UpstreamUnavailableException) cause);
+        }
+        if (cause instanceof OAuthCallbackStore.DuplicateCallbackException) {
+            return duplicateCallback();
+        }
+        if (cause instanceof HttpTimeoutException) {
+            log.info("{} callback failed: {}", stage, cause.toString());
+            return errorResponse(HttpStatus.GATEWAY_TIMEOUT.value(), "timeout", "LINE did not respond in time.");
+        }
+        if (cause instanceof IOException) {
+            log.info("{} callback failed: {}", stage, cause.toString());
+            return errorResponse(HttpStatus.BAD_GATEWAY.value(), "upstream_error", "LINE request failed.");
+        }
+        log.warn("{} callback failed", stage, cause);
+        return errorResponse(HttpStatus.INTERNAL_SERVER_ERROR.value(), "server_error", "The request failed.");
+    }
+
+    // Failed fast on an open circuit or a full bulkhead, for the blocking endpoints.
+    @ExceptionHandler(UpstreamUnavailableException.class)
+    public ResponseEntity<String> upstreamUnavailable(UpstreamUnavailableException e) {
+        log.info("LINE call refused: {}", e.getMessage());
+        return errorResponse(HttpStatus.SERVICE_UNAVAILABLE.value(), "upstream_unavailable",
+                "LINE is unavailable, try again later.");
+    }
+
+    private static ResponseEntity<String> errorResponse(int status, String error, String description) {
+        Map<String, String> errorObject = new HashMap<>();
+        errorObject.put("error", error);
+        errorObject.put("error_description", description);
         try {
-            String[] parts = idToken.split("\\.");
-            String headerPart = parts[0];
-            String payloadPart = parts[1];
-            String signaturePart = parts[2];
-
-            byte[] header = Base64.getDecoder().decode(headerPart);
-            byte[] payload = Base64.getDecoder().decode(payloadPart);
-
-            Map<String, String> headerMap = Utils.parse(header);
-            Map<String, String> payloadMap = Utils.parse(payload);
-
-            log.debug("header: {}", headerMap);
-            log.debug("payload: {}", payloadMap);
-            log.debug("signature: {}", signaturePart);
-
-            String type = headerMap.get("typ");
-            String algorithm = headerMap.get("alg");
-
-            //TODO: verify JWT
-            // https://developers.line.biz/en/docs/line-login/verify-id-token/#get-profile-info-from-id-token
-            String issuer = payloadMap.get("iss");
-            String subject = payloadMap.get("sub");
-            String name = payloadMap.get("name");
-            user.setTokenIssuer(issuer);
-        } catch (IllegalArgumentException e) {
-            // TODO: Found JWT header or body is not a valid base64 string and causing error. Ignore now and fix it later...
-            log.info(e.getMessage());
+            return ResponseEntity.status(status).body(Utils.stringify(errorObject));
+        } catch (JsonProcessingException e) {
+            return ResponseEntity.status(status).body(error);
         }
     }
 
     @GetMapping("/username")
-    public ResponseEntity<String> getUserDisplayName(@RequestParam("userId") String userId) throws IOException, InterruptedException {
+    public ResponseEntity<String> getUserDisplayName(
+            @RequestParam("userId") String userId,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch
+    ) throws IOException, InterruptedException {
         UserInfo user = userService.getUserInfo(userId);
         boolean exists = user != null;
-        log.info("User {} exists? {}", userId, exists);
-        return ResponseEntity.ok(exists ? user.getDisplayName() : "");
+        log.debug("User {} exists? {}", userId, exists);
+        String displayName = exists ? user.getDisplayName() : "";
+        return conditional(HttpStatus.OK.value(), displayName, NotifyStatusCache.etag(displayName), ifNoneMatch);
+    }
+
+    // Polled by the frontend: 200s carry an ETag and a max-age matching the status cache,
+    // and a matching If-None-Match gets a 304 without the body.
+    private ResponseEntity<String> conditional(int status, String body, String etag, String ifNoneMatch) {
+        if (status != HttpStatus.OK.value()) {
+            return ResponseEntity.status(status).body(body);
+        }
+        CacheControl cacheControl = CacheControl.maxAge(statusCache.getTtl()).cachePrivate();
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl).build();
+                }
+            }
+        }
+        return ResponseEntity.ok().eTag(etag).cacheControl(cacheControl).body(body);
     }
 
     @DeleteMapping("/user/{userId}")
@@ -189,9 +364,23 @@ public class MyController {
             @RequestParam(value = "code") String code,
             @RequestParam(value = "state", required = false) String state,
             @RequestParam(value = "error", required = false) String error,
-            @RequestParam(value = "error_description", required = false) String errorDescription
+            @RequestParam(value = "error_description", required = false) String errorDescription,
+            @CookieValue(value = BOT_STATE_COOKIE, required = false) String browserNonce
     ) throws IOException, InterruptedException {
-        log.info("Received LINE bot login auth code: {} state (userId): {}", code, state);
+        log.info("Received LINE bot login callback");
+        long start = System.nanoTime();
+        int status = 500;
+        try {
+            ResponseEntity<String> response = exchangeBotCode(code, state, error, errorDescription, browserNonce);
+            status = response.getStatusCodeValue();
+            return response;
+        } finally {
+            metrics.recordCallback(AppMetrics.Callback.BOT, status, System.nanoTime() - start);
+        }
+    }
+
+    private ResponseEntity<String> exchangeBotCode(String code, String state, String error, String errorDescription,
+                                                   String browserNonce) throws IOException, InterruptedException {
 
         if (error != null) {
             log.info("callback endpoint receives an error: {} {}", error, errorDescription);
@@ -201,7 +390,18 @@ public class MyController {
             return ResponseEntity.status(400).body(Utils.stringify(errorObject));
         }
 
-        String userId = state;
+        String userId;
+        OAuthCallbackStore.IssuedState issued = callbackStore.validateState(OAuthCallbackStore.Flow.BOT, state, code,
+                browserNonce);
+        if (issued != null) {
+            userId = issued.getUserId();
+        } else if (!requireState) {
+            // Older frontends pass the userId itself as the state.
+            userId = state;
+        } else {
+            log.info("bot callback with an invalid state");
+            return invalidState();
+        }
         UserInfo user = userService.getUserInfo(userId);
         if (user == null) {
             Map<String, String> errorObject = new HashMap<>();
@@ -210,32 +410,38 @@ public class MyController {
             return ResponseEntity.status(401).body(Utils.stringify(errorObject));
         }
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("https://notify-bot.line.me/oauth/token"))
-                .header("Content-Type", "application/x-www-form-urlencoded")
-                .timeout(Duration.ofMinutes(1))
-                .POST(HttpRequest.BodyPublishers.ofString(
-                        "grant_type=authorization_code" +
-                                "&code=" + code +
-                                "&redirect_uri=" + Utils.urlEncoder(backendServerUri + "/v1/linebotcallback") +
-                                "&client_id=" + botClientId +
-                                "&client_secret=" + botClientSecret
-                )).build();
+        try {
+            return Utils.await(callbackStore.exchangeOnce(OAuthCallbackStore.Flow.BOT, code,
+                    () -> CompletableFuture.completedFuture(redeemBotCode(user, code))));
+        } catch (OAuthCallbackStore.DuplicateCallbackException e) {
+            return duplicateCallback();
+        }
+    }
 
-        HttpResponse<String> response = Utils.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        log.info("token endpoint response: {}\n{}", response.statusCode(), response.body());
+    private ResponseEntity<String> redeemBotCode(UserInfo user, String code) throws IOException, InterruptedException {
+        HttpRequest request = lineApiClient.post(LineEndpoint.NOTIFY_TOKEN, null,
+                "grant_type=authorization_code" +
+                        "&code=" + code +
+                        "&redirect_uri=" + Utils.urlEncoder(backendServerUri + "/v1/linebotcallback") +
+                        "&client_id=" + botClientId +
+                        "&client_secret=" + botClientSecret);
+
+        HttpResponse<LineResponse<LineTokenResponse>> response = lineApiClient.send(LineEndpoint.NOTIFY_TOKEN, request,
+                Utils.jsonBody(LineTokenResponse.class));
+        log.debug("token endpoint response: {}\n{}", response.statusCode(), response.body());
         if (response.statusCode() != 200) {
             return ResponseEntity.status(response.statusCode())
-                    .body(response.body());
+                    .body(response.body().errorBody());
         }
 
         // have access_token only
-        Map<String, String> data = Utils.parse(response.body());
-        String accessToken = data.get("access_token");
+        String accessToken = response.body().body().accessToken();
 
+        String previousBotToken = user.getBotAccessToken();
         user.setBotAccessToken(accessToken);
+        user.setNotifyRevoked(false);
         log.info("user: {}", user);
-        userService.saveUserInfo(user);
+        userService.saveBotSubscription(user, previousBotToken);
 
         return ResponseEntity
                 .status(HttpStatus.TEMPORARY_REDIRECT)
@@ -245,8 +451,11 @@ public class MyController {
 
 
     @GetMapping("/user/{userId}/status")
-    public ResponseEntity<String> checkStatus(@PathVariable String userId) throws IOException, InterruptedException {
-        log.info("Check login status for userID: {}", userId);
+    public ResponseEntity<String> checkStatus(
+            @PathVariable String userId,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch
+    ) throws IOException, InterruptedException {
+        log.debug("Check login status for userID: {}", userId);
 
         UserInfo user = userService.getUserInfo(userId);
         if (user == null) {
@@ -256,17 +465,13 @@ public class MyController {
             return ResponseEntity.status(401).body(Utils.stringify(errorObject));
         }
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("https://notify-api.line.me/api/status"))
-                .header("Content-Type", "application/json")
-                .header("Authorization", "Bearer " + user.getBotAccessToken())
-                .timeout(Duration.ofMinutes(1))
-                .GET()
-                .build();
-
-        HttpResponse<String> response = Utils.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        log.info("status check response: {}\n{}", response.statusCode(), response.body());
-        return ResponseEntity.status(response.statusCode()).body(response.body());
+        NotifyStatusCache.Response status = statusCache.get(userId, () -> {
+            HttpRequest request = lineApiClient.get(LineEndpoint.NOTIFY_STATUS, "Bearer " + user.getBotAccessToken());
+            HttpResponse<String> response = lineApiClient.send(LineEndpoint.NOTIFY_STATUS, request);
+            log.debug("status check response: {}\n{}", response.statusCode(), response.body());
+            return NotifyStatusCache.Response.of(response.statusCode(), response.body());
+        });
+        return conditional(status.status(), status.body(), status.etag(), ifNoneMatch);
     }
 
     @PutMapping("/user/{userId}")
@@ -281,30 +486,66 @@ public class MyController {
             return ResponseEntity.status(401).body(Utils.stringify(errorObject));
         }
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("https://notify-api.line.me/api/revoke"))
-                .header("Content-Type", "application/x-www-form-urlencoded")
-                .header("Authorization", "Bearer " + user.getBotAccessToken())
-                .timeout(Duration.ofMinutes(1))
-                .POST(HttpRequest.BodyPublishers.ofString(""))
-                .build();
+        HttpRequest request = lineApiClient.post(LineEndpoint.NOTIFY_REVOKE, "Bearer " + user.getBotAccessToken(), "");
 
-        HttpResponse<String> response = Utils.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = lineApiClient.send(LineEndpoint.NOTIFY_REVOKE, request);
         log.info("status check response: {} {}", response.statusCode(), response.body());
+        if (response.statusCode() == HttpStatus.OK.value()) {
+            userService.markNotifyRevoked(user);
+        }
         return ResponseEntity.status(response.statusCode()).body(response.body());
     }
 
+    // Folded into the next tick, so repeated calls never run overlapping sweeps.
     @GetMapping("notify")
-    public ResponseEntity<Void> sendNotifyAll() throws IOException, InterruptedException {
+    public ResponseEntity<Void> sendNotifyAll() {
         log.info("Trigger LINE Notify");
 
-        service.sendNotifyAll();
-        return ResponseEntity.ok().build();
+        scheduler.requestSweep();
+        return ResponseEntity.status(HttpStatus.ACCEPTED).build();
+    }
+
+    // Returns as soon as the job is accepted; poll GET notify/{jobId} for progress.
+    @PostMapping("notify")
+    public ResponseEntity<?> submitNotify(@RequestBody NotifyRequest request) {
+        log.info("Submit LINE Notify job for {} users and segments {}",
+                request.userIds() == null ? 0 : request.userIds().size(), request.segments());
+        try {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(jobService.submit(request));
+        } catch (IllegalArgumentException e) {
+            return errorResponse(HttpStatus.BAD_REQUEST.value(), "invalid_request", e.getMessage());
+        } catch (RejectedExecutionException e) {
+            return errorResponse(HttpStatus.SERVICE_UNAVAILABLE.value(), "busy", "Too many jobs queued, try again later.");
+        }
+    }
+
+    @GetMapping("notify/{jobId}")
+    public ResponseEntity<NotifyJobStatus> getNotifyJob(@PathVariable String jobId) {
+        NotifyJobStatus status = jobService.getStatus(jobId);
+        return status == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(status);
+    }
+
+    @GetMapping("upstream")
+    public ResponseEntity<Map<LineEndpoint, EndpointStats.Snapshot>> getUpstreamStats() {
+        return ResponseEntity.ok(lineApiClient.getStats());
+    }
+
+    @GetMapping("upstream/circuits")
+    public ResponseEntity<Map<UpstreamGroup, CircuitBreaker.State>> getUpstreamCircuits() {
+        return ResponseEntity.ok(lineApiClient.getCircuits());
+    }
+
+    @GetMapping("outbox")
+    public ResponseEntity<NotifyOutbox.Stats> getOutboxStats() {
+        return ResponseEntity.ok(service.getOutboxStats());
     }
 
     @GetMapping("history")
-    public ResponseEntity<List<String>> getNotifyHistory() throws IOException, InterruptedException {
-        log.info("Show Notify history");
-        return ResponseEntity.ok(service.getHistory());
+    public ResponseEntity<List<NotifyHistoryEntry>> getNotifyHistory(
+            @RequestParam(value = "since", required = false) Instant since,
+            @RequestParam(value = "limit", defaultValue = "100") int limit
+    ) throws IOException, InterruptedException {
+        log.info("Show Notify history since {} limit {}", since, limit);
+        return ResponseEntity.ok(service.getHistory(since, Math.min(Math.max(limit, 0), 1000)));
     }
 }
@@ -0,0 +1,159 @@
+package com.example.authdemo;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Fans a notify tick out over many users with at most {@code maxInFlight}
+ * sends outstanding at once. Nothing here blocks the calling thread: each
+ * completed send starts the next one, and users whose turn comes after the
+ * tick deadline are reported as {@link NotifyOutcome#SKIPPED}.
+ */
+@Slf4j
+@Component
+public class NotifyDispatcher {
+
+    private static final LogSampler FAILURE_SAMPLE = new LogSampler(100);
+
+    private final int maxInFlight;
+
+    private final Duration tickDeadline;
+
+    private final ExecutorService executor;
+
+    @Autowired
+    public NotifyDispatcher(@Value("${notify.max_in_flight:64}") int maxInFlight,
+                            @Value("${notify.tick_deadline_ms:8000}") long tickDeadlineMs) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.tickDeadline = Duration.ofMillis(tickDeadlineMs);
+        this.executor = Executors.newFixedThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors()),
+                new ThreadFactoryBuilder().setNameFormat("notify-dispatch-%d").setDaemon(true).build());
+    }
+
+    public CompletableFuture<DispatchResult> dispatch(Collection<UserInfo> users,
+                                                      Function<UserInfo, CompletableFuture<NotifyOutcome>> sender) {
+        Tick tick = new Tick(users, sender);
+        tick.start();
+        return tick.result;
+    }
+
+    /**
+     * Runs a blocking call (e.g. a token verify) on the dispatcher's own pool
+     * so it never ties up the HTTP client's threads or the scheduler thread.
+     */
+    public <T> CompletableFuture<T> supplyBlocking(Callable<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private final class Tick {
+
+        private final Iterator<UserInfo> pending;
+
+        private final Function<UserInfo, CompletableFuture<NotifyOutcome>> sender;
+
+        private final ConcurrentLinkedQueue<DispatchResult.UserResult> results = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger remaining;
+
+        private final long startNanos = System.nanoTime();
+
+        private final long deadlineNanos = startNanos + tickDeadline.toNanos();
+
+        private final CompletableFuture<DispatchResult> result = new CompletableFuture<>();
+
+        Tick(Collection<UserInfo> users, Function<UserInfo, CompletableFuture<NotifyOutcome>> sender) {
+            List<UserInfo> snapshot = List.copyOf(users);
+            this.pending = snapshot.iterator();
+            this.sender = sender;
+            this.remaining = new AtomicInteger(snapshot.size());
+        }
+
+        void start() {
+            if (remaining.get() == 0) {
+                finish();
+                return;
+            }
+            for (int i = 0; i < maxInFlight; i++) {
+                launchNext();
+            }
+        }
+
+        private synchronized UserInfo nextUser() {
+            return pending.hasNext() ? pending.next() : null;
+        }
+
+        private void launchNext() {
+            UserInfo user;
+            while ((user = nextUser()) != null) {
+                long remainingNanos = deadlineNanos - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    complete(user, NotifyOutcome.SKIPPED);
+                    continue;
+                }
+
+                UserInfo target = user;
+                CompletableFuture<NotifyOutcome> send;
+                try {
+                    send = sender.apply(target);
+                } catch (RuntimeException e) {
+                    send = CompletableFuture.failedFuture(e);
+                }
+                send.orTimeout(remainingNanos, TimeUnit.NANOSECONDS)
+                        .whenCompleteAsync((outcome, error) -> {
+                            if (error != null) {
+                                if (FAILURE_SAMPLE.sample()) {
+                                    log.info("notify userId={} error={} (1 in {} logged)",
+                                            target.getUserId(), error.toString(), FAILURE_SAMPLE.getRate());
+                                }
+                                outcome = NotifyOutcome.FAILED;
+                            }
+                            complete(target, outcome);
+                            launchNext();
+                        }, executor);
+                return;
+            }
+        }
+
+        private void complete(UserInfo user, NotifyOutcome outcome) {
+            results.add(new DispatchResult.UserResult(user, outcome));
+            if (remaining.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            Duration duration = Duration.ofNanos(System.nanoTime() - startNanos);
+            result.complete(new DispatchResult(List.copyOf(results), duration));
+        }
+    }
+}
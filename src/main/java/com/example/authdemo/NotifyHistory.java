@@ -0,0 +1,145 @@
+package com.example.authdemo;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Fixed-size ring buffer of notify ticks in time order. Entries older than
+ * the retention period are dropped, and when the buffer is full the oldest
+ * entry makes room for the newest, so memory use is bounded either way.
+ */
+@Component
+public class NotifyHistory {
+
+    private final Duration retention;
+
+    private final int maxRecipients;
+
+    private final NotifyHistoryEntry[] ring;
+
+    // Index of the oldest entry and number of entries held.
+    private int head;
+
+    private int size;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Supplier<Instant> clock;
+
+    @Autowired
+    public NotifyHistory(@Value("${notify.history_retention_hours:24}") long retentionHours,
+                         @Value("${notify.history_capacity:10000}") int capacity,
+                         @Value("${notify.history_max_recipients:100}") int maxRecipients) {
+        this(retentionHours, capacity, maxRecipients, Instant::now);
+    }
+
+    NotifyHistory(long retentionHours, int capacity, int maxRecipients, Supplier<Instant> clock) {
+        this.clock = clock;
+        this.retention = Duration.ofHours(retentionHours);
+        this.ring = new NotifyHistoryEntry[Math.max(1, capacity)];
+        this.maxRecipients = maxRecipients;
+    }
+
+    public void record(DispatchResult result) {
+        List<String> recipients = result.recipients();
+        if (recipients.size() > maxRecipients) {
+            recipients = List.copyOf(recipients.subList(0, maxRecipients));
+        }
+
+        lock.writeLock().lock();
+        try {
+            // Taken under the lock and always after the newest entry, so the ring stays sorted and
+            // no two entries share a time: a page ending at one entry's time never cuts off another.
+            Instant now = clock.get();
+            if (size > 0 && !get(size - 1).time().isBefore(now)) {
+                now = get(size - 1).time().plusNanos(1);
+            }
+            NotifyHistoryEntry entry = new NotifyHistoryEntry(now, result.duration().toMillis(),
+                    result.count(NotifyOutcome.SENT), result.count(NotifyOutcome.FAILED),
+                    result.count(NotifyOutcome.SKIPPED), result.count(NotifyOutcome.DEFERRED), recipients);
+
+            evictBefore(now.minus(retention));
+            if (size == ring.length) {
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                size--;
+            }
+            ring[(head + size) % ring.length] = entry;
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Entries strictly after {@code since}, oldest first, at most {@code limit}.
+     * Without {@code since}, the most recent {@code limit} entries. Times are
+     * unique, so passing the last entry's time back as {@code since} fetches
+     * the next page without gaps.
+     */
+    public List<NotifyHistoryEntry> find(Instant since, int limit) {
+        Instant cutoff = clock.get().minus(retention);
+        lock.readLock().lock();
+        try {
+            int from = firstAfter(since != null && since.isAfter(cutoff) ? since : cutoff);
+            int to = size;
+            if (since == null) {
+                from = Math.max(from, to - limit);
+            } else {
+                to = (int) Math.min(to, (long) from + limit);
+            }
+            List<NotifyHistoryEntry> result = new ArrayList<>(Math.max(0, to - from));
+            for (int i = from; i < to; i++) {
+                result.add(get(i));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private NotifyHistoryEntry get(int i) {
+        return ring[(head + i) % ring.length];
+    }
+
+    // Binary search over the logical order: first index with time > instant.
+    private int firstAfter(Instant instant) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (get(mid).time().isAfter(instant)) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    private void evictBefore(Instant cutoff) {
+        while (size > 0 && !ring[head].time().isAfter(cutoff)) {
+            ring[head] = null;
+            head = (head + 1) % ring.length;
+            size--;
+        }
+    }
+}
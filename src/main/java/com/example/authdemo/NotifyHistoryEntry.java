@@ -0,0 +1,18 @@
+package com.example.authdemo;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * One notify tick. {@code recipients} holds at most the configured number of
+ * display names; {@code sent} is always the full count.
+ */
+public record NotifyHistoryEntry(
+        Instant time,
+        long durationMs,
+        long sent,
+        long failed,
+        long skipped,
+        long deferred,
+        List<String> recipients) {
+}
@@ -0,0 +1,175 @@
+package com.example.authdemo;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Broadcasts submitted through POST /v1/notify. The request thread only
+ * compiles the template and returns a job ID; resolving targets, rendering
+ * and writing the messages to the outbox happen in the background, on a
+ * small pool of their own so a large job never holds up the notify sends,
+ * and the regular outbox drain sends them. Jobs can be polled until they
+ * expire.
+ */
+@Slf4j
+@Service
+public class NotifyJobService {
+
+    private static final int ENQUEUE_CHUNK = 1000;
+
+    private final UserService userService;
+
+    private final NotifyScheduler scheduler;
+
+    private final NotifyOutbox outbox;
+
+    private final ExecutorService executor;
+
+    private final Cache<String, Job> jobs;
+
+    @Autowired
+    public NotifyJobService(UserService userService, NotifyScheduler scheduler, NotifyOutbox outbox,
+                            @Value("${notify.job_retention_minutes:60}") long retentionMinutes,
+                            @Value("${notify.job_threads:2}") int threads,
+                            @Value("${notify.job_queue_capacity:100}") int queueCapacity) {
+        this.userService = userService;
+        this.scheduler = scheduler;
+        this.outbox = outbox;
+        this.executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                new ThreadFactoryBuilder().setNameFormat("notify-job-%d").setDaemon(true).build());
+        this.jobs = CacheBuilder.newBuilder()
+                .expireAfterWrite(Duration.ofMinutes(retentionMinutes))
+                .build();
+    }
+
+    /**
+     * Starts a job and returns its initial status.
+     *
+     * @throws IllegalArgumentException if the template is invalid or no targets are given
+     * @throws RejectedExecutionException if too many jobs are already waiting
+     */
+    public NotifyJobStatus submit(NotifyRequest request) {
+        NotifyTemplate template = NotifyTemplate.compile(request.message());
+        List<String> userIds = request.userIds() == null ? List.of() : request.userIds();
+        List<NotifySegment> segments = request.segments() == null ? List.of() : request.segments();
+        if (userIds.isEmpty() && segments.isEmpty()) {
+            throw new IllegalArgumentException("no userIds or segments given");
+        }
+
+        Job job = new Job(UUID.randomUUID().toString(), Instant.now());
+        CompletableFuture<Void> enqueued = CompletableFuture.runAsync(
+                () -> enqueue(job, template, userIds, segments), executor);
+        jobs.put(job.id, job);
+        enqueued.whenComplete((ignored, error) -> {
+            if (error != null) {
+                log.warn("notify job {} failed", job.id, error);
+                job.error = String.valueOf(error.getCause() != null ? error.getCause() : error);
+            } else {
+                // Start sending now rather than at the next scheduled tick.
+                scheduler.requestDrain();
+            }
+        });
+        return getStatus(job.id);
+    }
+
+    // Null once the job has expired or if it never existed.
+    public NotifyJobStatus getStatus(String jobId) {
+        Job job = jobs.getIfPresent(jobId);
+        if (job == null) {
+            return null;
+        }
+        long total = job.total;
+        long enqueued = job.enqueued;
+        NotifyOutbox.Stats stats = enqueued > 0 ? outbox.getStats(jobId) : new NotifyOutbox.Stats(0, 0, 0);
+
+        NotifyJobStatus.State state;
+        if (job.error != null) {
+            state = NotifyJobStatus.State.FAILED;
+        } else if (total < 0 || enqueued < total) {
+            state = NotifyJobStatus.State.ENQUEUING;
+        } else if (stats.pending() > 0) {
+            state = NotifyJobStatus.State.SENDING;
+        } else {
+            state = NotifyJobStatus.State.DONE;
+        }
+        return new NotifyJobStatus(job.id, state, job.createdAt, total, enqueued,
+                stats.pending(), stats.sent(), stats.dead(), job.error);
+    }
+
+    private void enqueue(Job job, NotifyTemplate template, List<String> userIds, List<NotifySegment> segments) {
+        Map<String, UserInfo> targets = new LinkedHashMap<>();
+        for (String userId : userIds) {
+            UserInfo user = userService.getUserInfo(userId);
+            if (user != null && user.isNotifiable()) {
+                targets.put(userId, user);
+            }
+        }
+        if (!segments.isEmpty()) {
+            Instant now = Instant.now();
+            for (NotifySegment segment : EnumSet.copyOf(segments)) {
+                segment.forEach(userService, now, user -> targets.putIfAbsent(user.getUserId(), user));
+            }
+        }
+        job.total = targets.size();
+        log.info("notify job {}: {} users", job.id, targets.size());
+
+        List<OutboundNotification> chunk = new ArrayList<>(ENQUEUE_CHUNK);
+        for (UserInfo user : targets.values()) {
+            chunk.add(new OutboundNotification(0, "job:" + job.id + ":" + user.getUserId(), user.getUserId(),
+                    job.id, template.render(user), 0));
+            if (chunk.size() == ENQUEUE_CHUNK) {
+                outbox.enqueue(chunk);
+                job.enqueued += chunk.size();
+                chunk.clear();
+            }
+        }
+        outbox.enqueue(chunk);
+        job.enqueued += chunk.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static final class Job {
+
+        private final String id;
+
+        private final Instant createdAt;
+
+        // Written only by the enqueue task, read by pollers.
+        private volatile long total = -1;
+
+        private volatile long enqueued;
+
+        private volatile String error;
+
+        Job(String id, Instant createdAt) {
+            this.id = id;
+            this.createdAt = createdAt;
+        }
+    }
+}
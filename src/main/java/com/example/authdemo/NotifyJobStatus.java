@@ -0,0 +1,20 @@
+package com.example.authdemo;
+
+import java.time.Instant;
+
+/**
+ * Progress of a notify job. {@code total} is -1 until the targets are
+ * resolved; {@code pending}, {@code sent} and {@code dead} count the job's
+ * messages in the outbox.
+ */
+public record NotifyJobStatus(String id, State state, Instant createdAt, long total, long enqueued,
+                              long pending, long sent, long dead, String error) {
+
+    public enum State {
+        // Resolving targets and writing messages to the outbox.
+        ENQUEUING,
+        SENDING,
+        DONE,
+        FAILED
+    }
+}
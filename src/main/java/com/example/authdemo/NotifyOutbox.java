@@ -0,0 +1,331 @@
+package com.example.authdemo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Durable queue of notify messages in the application database. A tick
+ * enqueues its messages before sending anything, so a crash mid-tick loses
+ * nothing: claimed rows whose claim runs out are picked up again, which
+ * makes delivery at-least-once. Failed sends are retried with exponential
+ * backoff and jitter; after {@code maxAttempts} they stay in the table as
+ * DEAD for inspection, until {@code deadRetention} has passed.
+ *
+ * <p>A user has at most one pending tick message: while one is still waiting
+ * (in backoff, or deferred by a rate limit), later ticks queue nothing more
+ * for that user. Job messages carry their own content and are always queued.
+ */
+@Slf4j
+@Component
+public class NotifyOutbox {
+
+    // sent only counts messages still retained for deduplication.
+    public record Stats(long pending, long sent, long dead) {
+    }
+
+    private static final String PENDING = "PENDING";
+    private static final String SENT = "SENT";
+    private static final String DEAD = "DEAD";
+
+    private static final RowMapper<OutboundNotification> ROW_MAPPER = (rs, rowNum) -> new OutboundNotification(
+            rs.getLong("id"), rs.getString("dedup_key"), rs.getString("user_id"), rs.getString("job_id"),
+            rs.getString("form_body"), rs.getInt("attempts"));
+
+    private record DueRow(OutboundNotification message, long nextAttemptAt) {
+    }
+
+    private static final RowMapper<DueRow> DUE_ROW_MAPPER = (rs, rowNum) ->
+            new DueRow(ROW_MAPPER.mapRow(rs, rowNum), rs.getLong("next_attempt_at"));
+
+    private static final String STATS_SQL = "SELECT COUNT(CASE WHEN status = ? THEN 1 END), " +
+            "COUNT(CASE WHEN status = ? THEN 1 END), COUNT(CASE WHEN status = ? THEN 1 END) FROM notify_outbox";
+
+    private static final RowMapper<Stats> STATS_MAPPER =
+            (rs, rowNum) -> new Stats(rs.getLong(1), rs.getLong(2), rs.getLong(3));
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final int maxAttempts;
+
+    private final long retryBaseMs;
+
+    private final long retryMaxMs;
+
+    private final int batchSize;
+
+    private final long claimTtlMs;
+
+    private final long dedupWindowMs;
+
+    private final long sentRetentionMs;
+
+    private final long deadRetentionMs;
+
+    @Autowired
+    public NotifyOutbox(JdbcTemplate jdbcTemplate,
+                        @Value("${notify.outbox.max_attempts:6}") int maxAttempts,
+                        @Value("${notify.outbox.retry_base_ms:10000}") long retryBaseMs,
+                        @Value("${notify.outbox.retry_max_ms:600000}") long retryMaxMs,
+                        @Value("${notify.outbox.batch_size:10000}") int batchSize,
+                        @Value("${notify.outbox.claim_ttl_ms:60000}") long claimTtlMs,
+                        @Value("${notify.outbox.dedup_window_ms:10000}") long dedupWindowMs,
+                        @Value("${notify.outbox.sent_retention_minutes:60}") long sentRetentionMinutes,
+                        @Value("${notify.outbox.dead_retention_hours:168}") long deadRetentionHours) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBaseMs = retryBaseMs;
+        this.retryMaxMs = retryMaxMs;
+        this.batchSize = Math.max(1, batchSize);
+        this.claimTtlMs = claimTtlMs;
+        this.dedupWindowMs = Math.max(1, dedupWindowMs);
+        this.sentRetentionMs = sentRetentionMinutes * 60_000;
+        this.deadRetentionMs = deadRetentionHours * 3_600_000;
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS notify_outbox (" +
+                "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                "dedup_key VARCHAR(200) NOT NULL UNIQUE, " +
+                "user_id VARCHAR(64) NOT NULL, " +
+                "job_id VARCHAR(36), " +
+                "form_body VARCHAR(10000) NOT NULL, " +
+                "status VARCHAR(8) NOT NULL, " +
+                "attempts INT NOT NULL, " +
+                "next_attempt_at BIGINT NOT NULL, " +
+                "claimed_until BIGINT NOT NULL, " +
+                "updated_at BIGINT NOT NULL)");
+        migrateMessageColumn();
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS notify_outbox_due ON notify_outbox (status, next_attempt_at)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS notify_outbox_job ON notify_outbox (job_id)");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS notify_outbox_user ON notify_outbox (user_id, status)");
+    }
+
+    // Tables created before jobs stored the plain message text; it becomes a form body.
+    private void migrateMessageColumn() {
+        jdbcTemplate.execute("ALTER TABLE notify_outbox ADD COLUMN IF NOT EXISTS job_id VARCHAR(36)");
+        jdbcTemplate.execute("ALTER TABLE notify_outbox ADD COLUMN IF NOT EXISTS form_body VARCHAR(10000)");
+        Integer legacy = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS " +
+                "WHERE TABLE_NAME = 'NOTIFY_OUTBOX' AND COLUMN_NAME = 'MESSAGE'", Integer.class);
+        if (legacy == null || legacy == 0) {
+            return;
+        }
+        List<Object[]> rows = jdbcTemplate.query("SELECT id, message FROM notify_outbox WHERE form_body IS NULL",
+                (rs, rowNum) -> new Object[]{"message=" + Utils.urlEncoder(rs.getString("message")), rs.getLong("id")});
+        if (!rows.isEmpty()) {
+            jdbcTemplate.batchUpdate("UPDATE notify_outbox SET form_body = ? WHERE id = ?", rows);
+        }
+        jdbcTemplate.execute("ALTER TABLE notify_outbox ALTER COLUMN form_body SET NOT NULL");
+        jdbcTemplate.execute("ALTER TABLE notify_outbox DROP COLUMN message");
+        log.info("migrated {} notify_outbox rows to form bodies", rows.size());
+    }
+
+    /**
+     * Key for the message a tick at {@code time} sends to a user. Ticks that
+     * fall in the same window share keys, whichever node runs them.
+     */
+    public String dedupKey(String userId, Instant time) {
+        return userId + ":" + time.toEpochMilli() / dedupWindowMs;
+    }
+
+    /**
+     * Messages whose key is already queued (or was recently sent) are
+     * ignored, and so are tick messages for users who still have one pending.
+     */
+    public void enqueue(Collection<OutboundNotification> messages) {
+        long now = System.currentTimeMillis();
+        List<Object[]> tickRows = new ArrayList<>();
+        List<Object[]> jobRows = new ArrayList<>();
+        for (OutboundNotification message : messages) {
+            (message.jobId() == null ? tickRows : jobRows).add(new Object[]{message.dedupKey(), message.userId(),
+                    message.jobId(), message.formBody(), now, now});
+        }
+        insert(tickRows, "AND NOT EXISTS (SELECT 1 FROM notify_outbox p WHERE p.user_id = s.user_id " +
+                "AND p.status = '" + PENDING + "' AND p.job_id IS NULL) ");
+        insert(jobRows, "");
+    }
+
+    private void insert(List<Object[]> rows, String condition) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        String sql = "MERGE INTO notify_outbox o USING (VALUES (" +
+                "CAST(? AS VARCHAR(200)), CAST(? AS VARCHAR(64)), CAST(? AS VARCHAR(36)), " +
+                "CAST(? AS VARCHAR(10000)), CAST(? AS BIGINT), CAST(? AS BIGINT))) " +
+                "AS s (dedup_key, user_id, job_id, form_body, next_attempt_at, updated_at) " +
+                "ON o.dedup_key = s.dedup_key " +
+                "WHEN NOT MATCHED " + condition +
+                "THEN INSERT (dedup_key, user_id, job_id, form_body, status, attempts, " +
+                "next_attempt_at, claimed_until, updated_at) " +
+                "VALUES (s.dedup_key, s.user_id, s.job_id, s.form_body, '" + PENDING + "', 0, " +
+                "s.next_attempt_at, 0, s.updated_at)";
+        try {
+            jdbcTemplate.batchUpdate(sql, rows);
+        } catch (DuplicateKeyException e) {
+            // Another node inserted one of the keys between our check and insert; retry row by row.
+            for (Object[] row : rows) {
+                try {
+                    jdbcTemplate.update(sql, row);
+                } catch (DuplicateKeyException ignored) {
+                    // Already queued.
+                }
+            }
+        }
+    }
+
+    /**
+     * Claims up to {@code batchSize} due messages for {@code claimTtl}, at most
+     * one per user and only for users accepted by {@code filter}. A message
+     * claimed by another node is left alone.
+     */
+    public List<OutboundNotification> claimDue(Predicate<String> filter) {
+        return claimDue(filter, batchSize);
+    }
+
+    // As above, but claims at most limit rows (and never more than batchSize).
+    public List<OutboundNotification> claimDue(Predicate<String> filter, int limit) {
+        long now = System.currentTimeMillis();
+        int want = Math.min(Math.max(1, limit), batchSize);
+        Map<String, OutboundNotification> perUser = new LinkedHashMap<>();
+        // The oldest due rows may all belong to other nodes (one that is down, say), so keep
+        // reading in due order until this node has enough of its own or nothing due is left.
+        long afterAt = Long.MIN_VALUE;
+        long afterId = Long.MIN_VALUE;
+        List<DueRow> due;
+        do {
+            due = jdbcTemplate.query(
+                    "SELECT id, dedup_key, user_id, job_id, form_body, attempts, next_attempt_at " +
+                            "FROM notify_outbox WHERE status = ? AND next_attempt_at <= ? AND claimed_until <= ? " +
+                            "AND next_attempt_at >= ? AND (next_attempt_at, id) > (?, ?) " +
+                            "ORDER BY next_attempt_at, id LIMIT ?",
+                    DUE_ROW_MAPPER, PENDING, now, now, afterAt, afterAt, afterId, want);
+            for (DueRow row : due) {
+                if (perUser.size() < want && filter.test(row.message().userId())) {
+                    perUser.putIfAbsent(row.message().userId(), row.message());
+                }
+            }
+            if (!due.isEmpty()) {
+                afterAt = due.get(due.size() - 1).nextAttemptAt();
+                afterId = due.get(due.size() - 1).message().id();
+            }
+        } while (due.size() == want && perUser.size() < want);
+        List<OutboundNotification> candidates = new ArrayList<>(perUser.values());
+        if (candidates.isEmpty()) {
+            return candidates;
+        }
+        List<Object[]> rows = new ArrayList<>(candidates.size());
+        for (OutboundNotification message : candidates) {
+            rows.add(new Object[]{now + claimTtlMs, message.id(), now});
+        }
+        int[] updated = jdbcTemplate.batchUpdate(
+                "UPDATE notify_outbox SET claimed_until = ? WHERE id = ? AND claimed_until <= ?", rows);
+
+        List<OutboundNotification> claimed = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            if (updated[i] != 0) {
+                claimed.add(candidates.get(i));
+            }
+        }
+        return claimed;
+    }
+
+    public void markSent(Collection<OutboundNotification> messages) {
+        long now = System.currentTimeMillis();
+        update("UPDATE notify_outbox SET status = '" + SENT + "', updated_at = ? WHERE id = ?",
+                messages, message -> new Object[]{now, message.id()});
+    }
+
+    // For users that no longer exist.
+    public void drop(Collection<OutboundNotification> messages) {
+        update("DELETE FROM notify_outbox WHERE id = ?", messages, message -> new Object[]{message.id()});
+    }
+
+    // Not attempted (e.g. the tick ran out of time); due again right away.
+    public void release(Collection<OutboundNotification> messages) {
+        update("UPDATE notify_outbox SET claimed_until = 0 WHERE id = ?",
+                messages, message -> new Object[]{message.id()});
+    }
+
+    // Not attempted because of a rate limit; does not count as a failure.
+    public void deferUntil(Map<OutboundNotification, Instant> deferrals) {
+        update("UPDATE notify_outbox SET next_attempt_at = ?, claimed_until = 0 WHERE id = ?",
+                deferrals.keySet(), message -> new Object[]{deferrals.get(message).toEpochMilli(), message.id()});
+    }
+
+    /**
+     * Schedules a retry for each failed message, or moves it to DEAD once it
+     * has used up its attempts. Returns how many were moved to DEAD.
+     */
+    public int markFailed(Collection<OutboundNotification> messages) {
+        if (messages.isEmpty()) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        List<Object[]> rows = new ArrayList<>(messages.size());
+        int dead = 0;
+        for (OutboundNotification message : messages) {
+            int attempts = message.attempts() + 1;
+            boolean exhausted = attempts >= maxAttempts;
+            if (exhausted) {
+                dead++;
+                log.info("notify to {} failed {} times, moved to dead letters", message.userId(), attempts);
+            }
+            rows.add(new Object[]{exhausted ? DEAD : PENDING, attempts, now + backoffMillis(attempts), now,
+                    message.id()});
+        }
+        jdbcTemplate.batchUpdate("UPDATE notify_outbox SET status = ?, attempts = ?, next_attempt_at = ?, " +
+                "claimed_until = 0, updated_at = ? WHERE id = ?", rows);
+        return dead;
+    }
+
+    public Stats getStats() {
+        return jdbcTemplate.queryForObject(STATS_SQL, STATS_MAPPER, PENDING, SENT, DEAD);
+    }
+
+    public Stats getStats(String jobId) {
+        return jdbcTemplate.queryForObject(STATS_SQL + " WHERE job_id = ?", STATS_MAPPER, PENDING, SENT, DEAD, jobId);
+    }
+
+    // Sent rows are only kept so their dedup keys keep working for a while.
+    @Scheduled(fixedDelay = 600000)
+    public void prune() {
+        long now = System.currentTimeMillis();
+        int sent = jdbcTemplate.update("DELETE FROM notify_outbox WHERE status = ? AND updated_at < ?",
+                SENT, now - sentRetentionMs);
+        int dead = jdbcTemplate.update("DELETE FROM notify_outbox WHERE status = ? AND updated_at < ?",
+                DEAD, now - deadRetentionMs);
+        log.debug("pruned {} sent and {} dead notifications", sent, dead);
+    }
+
+    // Exponential, capped, with the upper half jittered so retries from one tick spread out.
+    private long backoffMillis(int attempts) {
+        long exponential = retryBaseMs << Math.min(attempts - 1, 20);
+        long capped = Math.min(retryMaxMs, exponential);
+        long half = capped / 2;
+        return half + (half > 0 ? ThreadLocalRandom.current().nextLong(half + 1) : 0);
+    }
+
+    private void update(String sql, Collection<OutboundNotification> messages,
+                        Function<OutboundNotification, Object[]> toRow) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<Object[]> rows = new ArrayList<>(messages.size());
+        for (OutboundNotification message : messages) {
+            rows.add(toRow.apply(message));
+        }
+        jdbcTemplate.batchUpdate(sql, rows);
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.authdemo;
+
+public enum NotifyOutcome {
+    SENT,
+    FAILED,
+    // The tick deadline passed before this user's turn came up.
+    SKIPPED,
+    // The token is out of LINE Notify rate limit until its reset time.
+    DEFERRED
+}
@@ -0,0 +1,150 @@
+package com.example.authdemo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.net.http.HttpHeaders;
+import java.time.Instant;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Per-token view of the LINE Notify rate limit. Every notify response carries
+ * X-RateLimit-Remaining and X-RateLimit-Reset (epoch seconds); we keep the
+ * last seen values and spend them locally, so a token that has run out is
+ * deferred until its reset instead of burning a request on a 429.
+ *
+ * https://notify-bot.line.me/doc/en/ (API Rate Limit)
+ */
+@Slf4j
+@Component
+public class NotifyRateLimiter {
+
+    private static final LogSampler RATE_LIMIT_SAMPLE = new LogSampler(100);
+
+    private final long defaultBackoffSeconds;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private final LongAdder deferred = new LongAdder();
+
+    private final Supplier<Instant> clock;
+
+    @Autowired
+    public NotifyRateLimiter(@Value("${notify.rate_limit_backoff_seconds:60}") long defaultBackoffSeconds) {
+        this(defaultBackoffSeconds, Instant::now);
+    }
+
+    NotifyRateLimiter(long defaultBackoffSeconds, Supplier<Instant> clock) {
+        this.defaultBackoffSeconds = defaultBackoffSeconds;
+        this.clock = clock;
+    }
+
+    /**
+     * Takes one send from the token's bucket. Returns false (and counts a
+     * deferral) when the token has no sends left before its reset time.
+     */
+    public boolean tryAcquire(String accessToken) {
+        if (accessToken == null) {
+            return true;
+        }
+        Bucket bucket = buckets.get(accessToken);
+        if (bucket == null || bucket.tryAcquire(clock.get().getEpochSecond())) {
+            return true;
+        }
+        deferred.increment();
+        return false;
+    }
+
+    public void update(String accessToken, int statusCode, HttpHeaders headers) {
+        if (accessToken == null) {
+            return;
+        }
+        OptionalLong remaining = headers.firstValueAsLong("X-RateLimit-Remaining");
+        OptionalLong reset = headers.firstValueAsLong("X-RateLimit-Reset");
+        long now = clock.get().getEpochSecond();
+
+        if (statusCode == 429) {
+            long resetAt = reset.isPresent() && reset.getAsLong() > now ? reset.getAsLong() : now + defaultBackoffSeconds;
+            if (RATE_LIMIT_SAMPLE.sample()) {
+                log.info("notify rate limit hit, deferring token until {} (1 in {} logged)",
+                        Instant.ofEpochSecond(resetAt), RATE_LIMIT_SAMPLE.getRate());
+            }
+            buckets.computeIfAbsent(accessToken, k -> new Bucket()).set(0, resetAt);
+        } else if (remaining.isPresent() && reset.isPresent()) {
+            buckets.computeIfAbsent(accessToken, k -> new Bucket()).set(remaining.getAsLong(), reset.getAsLong());
+        }
+    }
+
+    /**
+     * Earliest time the next send for this token may go out.
+     */
+    public Instant nextSendAt(String accessToken) {
+        Bucket bucket = accessToken == null ? null : buckets.get(accessToken);
+        long now = clock.get().getEpochSecond();
+        return Instant.ofEpochSecond(bucket == null ? now : bucket.nextSendAt(now));
+    }
+
+    // A revoked or replaced bot token is never sent with again.
+    @EventListener
+    public void onUserEvent(UserEvent event) {
+        if (event.type() == UserEvent.Type.NOTIFY_REVOKED || event.type() == UserEvent.Type.BOT_SUBSCRIBED) {
+            forget(event.obsoleteToken());
+        }
+    }
+
+    public void forget(String accessToken) {
+        if (accessToken != null) {
+            buckets.remove(accessToken);
+        }
+    }
+
+    public long getDeferredCount() {
+        return deferred.sum();
+    }
+
+    // Buckets past their reset carry no information any more.
+    @Scheduled(fixedDelay = 60000)
+    public void prune() {
+        long now = clock.get().getEpochSecond();
+        buckets.values().removeIf(bucket -> bucket.isExpired(now));
+    }
+
+    private static final class Bucket {
+
+        private long remaining;
+
+        private long resetAt;
+
+        synchronized void set(long remaining, long resetAt) {
+            this.remaining = remaining;
+            this.resetAt = resetAt;
+        }
+
+        synchronized boolean tryAcquire(long now) {
+            if (now >= resetAt) {
+                return true;
+            }
+            if (remaining <= 0) {
+                return false;
+            }
+            remaining--;
+            return true;
+        }
+
+        synchronized long nextSendAt(long now) {
+            return remaining > 0 || now >= resetAt ? now : resetAt;
+        }
+
+        synchronized boolean isExpired(long now) {
+            return now >= resetAt;
+        }
+    }
+}
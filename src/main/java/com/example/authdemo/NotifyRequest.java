@@ -0,0 +1,10 @@
+package com.example.authdemo;
+
+import java.util.List;
+
+/**
+ * Body of POST /v1/notify: a message template and its targets, either
+ * explicit user IDs, segments, or both.
+ */
+public record NotifyRequest(String message, List<String> userIds, List<NotifySegment> segments) {
+}
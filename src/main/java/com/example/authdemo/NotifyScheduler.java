@@ -0,0 +1,203 @@
+package com.example.authdemo;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs notify ticks one at a time. A tick sweeps the notifiable users into
+ * the outbox once per {@code interval} and otherwise only drains what is
+ * due, claiming as many messages as the measured throughput can send within
+ * the tick deadline. The next tick follows straight away while a backlog
+ * remains, and backs off while LINE defers most sends.
+ *
+ * <p>Manual triggers and new jobs do not start a run of their own: they are
+ * folded into the next tick, which is brought forward if nothing is running.
+ */
+@Slf4j
+@Component
+// Ticks start at application ready, lazy initialization or not.
+@Lazy(false)
+public class NotifyScheduler {
+
+    // Share of deferred sends above which a tick counts as throttled.
+    private static final double BACKPRESSURE_RATIO = 0.5;
+
+    // Weight of the latest tick in the throughput estimate.
+    private static final double THROUGHPUT_WEIGHT = 0.3;
+
+    private static final int MIN_CLAIM = 100;
+
+    private final NotifyService notifyService;
+
+    private final Duration interval;
+
+    private final Duration minInterval;
+
+    private final Duration maxInterval;
+
+    private final Duration tickDeadline;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("notify-scheduler").setDaemon(true).build());
+
+    private final AtomicBoolean sweepRequested = new AtomicBoolean(true);
+
+    // Users handled per second, smoothed over ticks; 0 until a tick has handled anyone.
+    private volatile double throughput;
+
+    // The fields below are guarded by this.
+    private boolean running;
+
+    // Set by a trigger; makes the tick after the running one start straight away.
+    private boolean rerun;
+
+    private ScheduledFuture<?> next;
+
+    private long lastSweepNanos;
+
+    private Duration backoff = Duration.ZERO;
+
+    private int lastClaimLimit;
+
+    @Autowired
+    public NotifyScheduler(NotifyService notifyService,
+                           @Value("${notify.interval_ms:10000}") long intervalMs,
+                           @Value("${notify.min_interval_ms:500}") long minIntervalMs,
+                           @Value("${notify.max_interval_ms:120000}") long maxIntervalMs,
+                           @Value("${notify.tick_deadline_ms:8000}") long tickDeadlineMs) {
+        this.notifyService = notifyService;
+        this.interval = Duration.ofMillis(intervalMs);
+        this.minInterval = Duration.ofMillis(minIntervalMs);
+        this.maxInterval = Duration.ofMillis(Math.max(intervalMs, maxIntervalMs));
+        this.tickDeadline = Duration.ofMillis(tickDeadlineMs);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        schedule(Duration.ZERO);
+    }
+
+    // GET /v1/notify: sweep every user at the next tick.
+    public void requestSweep() {
+        sweepRequested.set(true);
+        wake();
+    }
+
+    // New messages are in the outbox; send them at the next tick.
+    public void requestDrain() {
+        wake();
+    }
+
+    public double getThroughput() {
+        return throughput;
+    }
+
+    private synchronized void wake() {
+        rerun = true;
+        // If the scheduled tick has already started, it picks the request up itself.
+        if (!running && next != null && next.cancel(false)) {
+            schedule(Duration.ZERO);
+        }
+    }
+
+    private void tick() {
+        boolean sweep;
+        int limit = claimLimit();
+        synchronized (this) {
+            lastClaimLimit = limit;
+            running = true;
+            rerun = false;
+            sweep = sweepRequested.getAndSet(false) || System.nanoTime() - lastSweepNanos >= interval.toNanos();
+            if (sweep) {
+                lastSweepNanos = System.nanoTime();
+            }
+        }
+        try {
+            if (sweep) {
+                notifyService.enqueueTick();
+            }
+            notifyService.sendDue(limit)
+                    .whenComplete((result, error) -> finished(result, error));
+        } catch (RuntimeException e) {
+            log.warn("notify tick failed", e);
+            finished(null, e);
+        }
+    }
+
+    private int claimLimit() {
+        double perSecond = throughput;
+        if (perSecond <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        double limit = perSecond * tickDeadline.toMillis() / 1000.0;
+        return (int) Math.max(MIN_CLAIM, Math.min(Integer.MAX_VALUE, limit));
+    }
+
+    private synchronized void finished(DispatchResult result, Throwable error) {
+        running = false;
+        Duration delay;
+        // sendDue has logged the failure.
+        if (error != null) {
+            delay = interval;
+        } else {
+            delay = nextDelay(result);
+        }
+        if (rerun) {
+            delay = Duration.ZERO;
+        }
+        schedule(delay);
+    }
+
+    private Duration nextDelay(DispatchResult result) {
+        long handled = result.count(NotifyOutcome.SENT) + result.count(NotifyOutcome.FAILED);
+        if (handled > 0) {
+            double latest = result.throughput();
+            throughput = throughput <= 0 ? latest : throughput + THROUGHPUT_WEIGHT * (latest - throughput);
+        }
+
+        int total = result.results().size();
+        if (total > 0 && result.count(NotifyOutcome.DEFERRED) > total * BACKPRESSURE_RATIO) {
+            backoff = backoff.isZero() ? interval : min(backoff.multipliedBy(2), maxInterval);
+            log.info("notify throttled upstream, next tick in {} s", backoff.toSeconds());
+            return backoff;
+        }
+        backoff = Duration.ZERO;
+
+        // Users left over at the deadline, or a full claim that likely left more behind: keep going.
+        if (result.count(NotifyOutcome.SKIPPED) > 0 || total >= lastClaimLimit) {
+            return minInterval;
+        }
+        Duration untilSweep = interval.minusNanos(System.nanoTime() - lastSweepNanos);
+        return untilSweep.compareTo(minInterval) < 0 ? minInterval : untilSweep;
+    }
+
+    private void schedule(Duration delay) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        next = executor.schedule(this::tick, delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
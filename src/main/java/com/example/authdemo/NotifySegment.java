@@ -0,0 +1,33 @@
+package com.example.authdemo;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * Named groups of users a notify job can target besides explicit user IDs.
+ * Each reads the user store index that covers it; users who cannot receive
+ * LINE Notify messages are never targeted.
+ */
+public enum NotifySegment {
+    // Everyone who connected LINE Notify.
+    NOTIFIABLE {
+        @Override
+        void forEach(UserService userService, Instant now, Consumer<UserInfo> action) {
+            userService.forEachNotifiable(action);
+        }
+    },
+    // LINE Login access token expires within a week, e.g. to ask them to log in again.
+    LOGIN_EXPIRING {
+        @Override
+        void forEach(UserService userService, Instant now, Consumer<UserInfo> action) {
+            userService.forEachExpiringBefore(now.plus(Duration.ofDays(7)), user -> {
+                if (user.isNotifiable()) {
+                    action.accept(user);
+                }
+            });
+        }
+    };
+
+    abstract void forEach(UserService userService, Instant now, Consumer<UserInfo> action);
+}
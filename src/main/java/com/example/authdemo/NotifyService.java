@@ -2,75 +2,246 @@ package com.example.authdemo;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.io.IOException;
-import java.net.URI;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Slf4j
 @Service
 public class NotifyService {
 
-    private static ConcurrentHashMap<LocalDateTime, String> history = new ConcurrentHashMap<>();
+    // Per-user notify lines are DEBUG; at INFO only a sample of the failures is shown.
+    private static final LogSampler FAILURE_SAMPLE = new LogSampler(100);
 
     private UserService userService;
 
+    private NotifyDispatcher dispatcher;
+
+    private NotifyRateLimiter rateLimiter;
+
+    private NotifyHistory history;
+
+    private LineApiClient lineApiClient;
+
+    private AppMetrics metrics;
+
+    private ClusterMembership cluster;
+
+    private NotifyOutbox outbox;
+
+    private int pageSize;
+
+    private Duration enqueueBudget;
+
+    // Last user a tick enqueued before running out of its budget; null to start from the beginning.
+    private String tickCursor;
+
     @Autowired
-    public NotifyService(UserService userService) {
+    public NotifyService(UserService userService, NotifyDispatcher dispatcher, NotifyRateLimiter rateLimiter,
+                         NotifyHistory history, LineApiClient lineApiClient, AppMetrics metrics,
+                         ClusterMembership cluster, NotifyOutbox outbox,
+                         @Value("${notify.tick_page_size:1000}") int pageSize,
+                         @Value("${notify.tick_enqueue_budget_ms:2000}") long enqueueBudgetMs) {
         this.userService = userService;
+        this.dispatcher = dispatcher;
+        this.rateLimiter = rateLimiter;
+        this.history = history;
+        this.lineApiClient = lineApiClient;
+        this.metrics = metrics;
+        this.cluster = cluster;
+        this.outbox = outbox;
+        this.pageSize = Math.max(1, pageSize);
+        this.enqueueBudget = Duration.ofMillis(enqueueBudgetMs);
+    }
+
+    // One full sweep and drain. Ticks are driven by NotifyScheduler, which
+    // calls the two halves itself; this is for running a tick directly.
+    // Every node runs ticks, but each only notifies the users it owns.
+    // Messages go through the outbox first, so none is lost if we crash mid-tick.
+    public CompletableFuture<DispatchResult> sendNotifyAll() {
+        enqueueTick();
+        return sendDue();
     }
 
-    @Scheduled(fixedDelay = 10000)
-    public void sendNotifyAll() throws IOException, InterruptedException {
+    /**
+     * Walks the notifiable users page by page from where the last tick
+     * stopped and queues a message for each one this node owns. Stops at
+     * the enqueue budget; the next tick carries on from the cursor, and a
+     * finished sweep starts over from the first user.
+     */
+    public synchronized void enqueueTick() {
+        Instant now = Instant.now();
+        long deadline = System.nanoTime() + enqueueBudget.toNanos();
+        NotifyTemplate template = NotifyTemplate.literal("Test Message " + LocalDateTime.now());
+        String cursor = tickCursor;
+        int enqueued = 0;
+        while (true) {
+            List<UserInfo> page = userService.findNotifiable(cursor, pageSize);
+            List<OutboundNotification> messages = new ArrayList<>(page.size());
+            for (UserInfo user : page) {
+                if (cluster.owns(user.getUserId())) {
+                    messages.add(new OutboundNotification(0, outbox.dedupKey(user.getUserId(), now),
+                            user.getUserId(), null, template.render(user), 0));
+                }
+            }
+            outbox.enqueue(messages);
+            enqueued += messages.size();
 
-        List<String> recipientList = new LinkedList<>();
-        for (UserInfo user : userService.getAllUsers()) {
-            if (sendNotify(user)) {
-                recipientList.add(user.getDisplayName());
+            if (page.size() < pageSize) {
+                cursor = null;
+                break;
+            }
+            cursor = page.get(page.size() - 1).getUserId();
+            if (System.nanoTime() >= deadline) {
+                log.info("notify tick enqueued {} users, continuing after {} next tick", enqueued, cursor);
+                break;
             }
         }
-        String s = LocalDateTime.now() + " - Notify to: " + String.join(", ", recipientList);
-        log.info(s);
-        history.put(LocalDateTime.now(), s);
-        //TODO: only keep history for one day...
+        tickCursor = cursor;
     }
 
-    private boolean sendNotify(UserInfo user) throws IOException, InterruptedException {
-        String accessToken = user.getBotAccessToken();
-        String message = "Test Message " + LocalDateTime.now();
+    /**
+     * Sends everything due in the outbox for users this node owns: tick
+     * messages, job messages and earlier retries, one per user.
+     */
+    public CompletableFuture<DispatchResult> sendDue() {
+        return sendDue(Integer.MAX_VALUE);
+    }
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("https://notify-api.line.me/api/notify"))
-                .header("Content-Type", "application/x-www-form-urlencoded")
-                .header("Authorization", "Bearer " + accessToken)
-                .timeout(Duration.ofMinutes(1))
-                .POST(HttpRequest.BodyPublishers.ofString("message=" + Utils.urlEncoder(message)))
-                .build();
+    // Only starts the sends; they complete on the dispatcher and the result
+    // is recorded from there, so the calling thread is free again.
+    public CompletableFuture<DispatchResult> sendDue(int limit) {
+        // Leave everything queued while LINE Notify's circuit is open.
+        if (!lineApiClient.isAvailable(UpstreamGroup.NOTIFY)) {
+            log.info("notify circuit open, leaving due messages queued");
+            return CompletableFuture.completedFuture(new DispatchResult(List.of(), Duration.ZERO));
+        }
+        Map<String, OutboundNotification> byUser = new HashMap<>();
+        List<UserInfo> users = new ArrayList<>();
+        List<OutboundNotification> gone = new ArrayList<>();
+        for (OutboundNotification message : outbox.claimDue(cluster::owns, limit)) {
+            UserInfo user = userService.getUserInfo(message.userId());
+            if (user == null || !user.isNotifiable()) {
+                gone.add(message);
+            } else {
+                byUser.put(message.userId(), message);
+                users.add(user);
+            }
+        }
+        outbox.drop(gone);
 
-        HttpResponse<String> response = Utils.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        log.info("notify response: {}\n{}", response.statusCode(), response.body());
+        return dispatcher.dispatch(users, user -> sendNotify(user, byUser.get(user.getUserId()).formBody()))
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        log.warn("notify tick failed", error);
+                    } else {
+                        settle(result, byUser);
+                        recordTick(result);
+                    }
+                });
+    }
 
-        if (response.statusCode() == HttpStatus.OK.value()) {
-            return true;
+    private void settle(DispatchResult result, Map<String, OutboundNotification> byUser) {
+        List<OutboundNotification> sent = new ArrayList<>();
+        List<OutboundNotification> failed = new ArrayList<>();
+        List<OutboundNotification> skipped = new ArrayList<>();
+        Map<OutboundNotification, Instant> deferred = new HashMap<>();
+        for (DispatchResult.UserResult r : result.results()) {
+            OutboundNotification message = byUser.get(r.user().getUserId());
+            switch (r.outcome()) {
+                case SENT -> sent.add(message);
+                case FAILED -> failed.add(message);
+                case SKIPPED -> skipped.add(message);
+                case DEFERRED -> deferred.put(message, rateLimiter.nextSendAt(r.user().getBotAccessToken()));
+            }
         }
-        return userService.verify(user);
+        outbox.markSent(sent);
+        outbox.release(skipped);
+        outbox.deferUntil(deferred);
+        int dead = outbox.markFailed(failed);
+        metrics.recordOutbox(failed.size() - dead, dead);
     }
 
-    public List<String> getHistory() {
-        List<String> result = new LinkedList<>();
-        for (Entry<LocalDateTime, String> e : history.entrySet()) {
-            result.add(e.getKey() + " - " + e.getValue());
+    private void recordTick(DispatchResult result) {
+        if (log.isDebugEnabled()) {
+            log.debug("Notify to: {}", String.join(", ", result.recipients()));
         }
-        return result;
+        log.info("notify tick: {} users in {} ms ({} users/s), sent {}, failed {}, skipped {}, deferred {} ({} total)",
+                result.results().size(), result.duration().toMillis(),
+                String.format("%.1f", result.throughput()),
+                result.count(NotifyOutcome.SENT), result.count(NotifyOutcome.FAILED),
+                result.count(NotifyOutcome.SKIPPED), result.count(NotifyOutcome.DEFERRED),
+                rateLimiter.getDeferredCount());
+        history.record(result);
+        metrics.recordTick(result);
+    }
+
+    private CompletableFuture<NotifyOutcome> sendNotify(UserInfo user, String formBody) {
+        String accessToken = user.getBotAccessToken();
+        if (!rateLimiter.tryAcquire(accessToken)) {
+            log.debug("notify to {} deferred until {}", user.getUserId(), rateLimiter.nextSendAt(accessToken));
+            return CompletableFuture.completedFuture(NotifyOutcome.DEFERRED);
+        }
+        HttpRequest request = lineApiClient.post(LineEndpoint.NOTIFY, "Bearer " + accessToken, formBody);
+
+        return lineApiClient.sendAsync(LineEndpoint.NOTIFY, request, Utils.jsonBody(NotifyStatusResponse.class))
+                .thenCompose(response -> {
+                    if (log.isDebugEnabled()) {
+                        log.debug("notify userId={} status={} body={}",
+                                user.getUserId(), response.statusCode(), response.body());
+                    } else if (response.statusCode() != HttpStatus.OK.value() && FAILURE_SAMPLE.sample()) {
+                        log.info("notify userId={} status={} body={} (1 in {} failures logged)",
+                                user.getUserId(), response.statusCode(), response.body(), FAILURE_SAMPLE.getRate());
+                    }
+                    rateLimiter.update(accessToken, response.statusCode(), response.headers());
+
+                    if (response.statusCode() == HttpStatus.OK.value()) {
+                        return CompletableFuture.completedFuture(NotifyOutcome.SENT);
+                    }
+                    // Throttled, not unauthorized: the token is fine, so there is nothing to verify.
+                    if (response.statusCode() == HttpStatus.TOO_MANY_REQUESTS.value()) {
+                        return CompletableFuture.completedFuture(NotifyOutcome.DEFERRED);
+                    }
+                    // The bot token is dead; the login token has nothing to do with it.
+                    if (response.statusCode() == HttpStatus.UNAUTHORIZED.value()) {
+                        userService.markNotifyRevoked(user);
+                        return CompletableFuture.completedFuture(NotifyOutcome.FAILED);
+                    }
+                    // Not delivered, whatever the login token's state: FAILED, so the outbox
+                    // retries it. The verify only refreshes what we know about the user.
+                    return dispatcher.supplyBlocking(() -> {
+                        userService.verify(user);
+                        return NotifyOutcome.FAILED;
+                    });
+                })
+                .exceptionally(error -> {
+                    // Not sent at all, so it goes back to the outbox without using up an attempt.
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    if (cause instanceof UpstreamUnavailableException) {
+                        return NotifyOutcome.SKIPPED;
+                    }
+                    throw error instanceof CompletionException ? (CompletionException) error
+                            : new CompletionException(error);
+                });
+    }
+
+    public NotifyOutbox.Stats getOutboxStats() {
+        return outbox.getStats();
+    }
+
+    public List<NotifyHistoryEntry> getHistory(Instant since, int limit) {
+        return history.find(since, limit);
     }
 }
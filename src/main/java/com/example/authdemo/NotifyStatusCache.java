@@ -0,0 +1,106 @@
+package com.example.authdemo;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Short-lived per-user copy of the LINE Notify status response, for the
+ * frontend's polling of /v1/user/{userId}/status. Concurrent requests for
+ * the same user share one upstream call. Only answers LINE gave about the
+ * token itself (2xx, 401) are kept; a save or removal of the user drops
+ * their entry.
+ */
+@Slf4j
+@Component
+public class NotifyStatusCache {
+
+    @FunctionalInterface
+    public interface Loader {
+        Response load() throws IOException, InterruptedException;
+    }
+
+    public record Response(int status, String body, String etag) {
+
+        public static Response of(int status, String body) {
+            return new Response(status, body, etag(body));
+        }
+    }
+
+    private final Duration ttl;
+
+    private final Cache<String, Response> cache;
+
+    private final Map<String, CompletableFuture<Response>> inFlight = new ConcurrentHashMap<>();
+
+    @Autowired
+    public NotifyStatusCache(@Value("${notify.status_cache_ttl_ms:5000}") long ttlMs,
+                             @Value("${notify.status_cache_size:10000}") long maximumSize) {
+        this.ttl = Duration.ofMillis(ttlMs);
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    public Response get(String userId, Loader loader) throws IOException, InterruptedException {
+        Response cached = cache.getIfPresent(userId);
+        if (cached != null) {
+            return cached;
+        }
+
+        CompletableFuture<Response> mine = new CompletableFuture<>();
+        CompletableFuture<Response> existing = inFlight.putIfAbsent(userId, mine);
+        if (existing != null) {
+            return Utils.await(existing);
+        }
+        try {
+            Response response = loader.load();
+            if (isCacheable(response.status())) {
+                cache.put(userId, response);
+            }
+            mine.complete(response);
+            return response;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(userId, mine);
+        }
+    }
+
+    public Duration getTtl() {
+        return ttl;
+    }
+
+    @EventListener
+    public void onUserSaved(UserSavedEvent event) {
+        cache.invalidate(event.user().getUserId());
+    }
+
+    @EventListener
+    public void onUserRemoved(UserRemovedEvent event) {
+        cache.invalidate(event.userId());
+    }
+
+    // Strong ETag over the body; the same body always gets the same tag, on any node.
+    public static String etag(String body) {
+        return "\"" + Hashing.murmur3_128().hashString(body == null ? "" : body, StandardCharsets.UTF_8) + "\"";
+    }
+
+    private static boolean isCacheable(int status) {
+        return (status >= 200 && status < 300) || status == 401;
+    }
+}
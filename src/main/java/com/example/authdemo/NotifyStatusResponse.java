@@ -0,0 +1,8 @@
+package com.example.authdemo;
+
+/**
+ * Body of the LINE Notify notify/status/revoke endpoints; {@code targetType}
+ * and {@code target} are only set by status.
+ */
+public record NotifyStatusResponse(int status, String message, String targetType, String target) {
+}
@@ -0,0 +1,288 @@
+package com.example.authdemo;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
+
+/**
+ * Short-lived, bounded store behind the OAuth callbacks.
+ *
+ * <p>States are issued here before the frontend redirects to LINE, as
+ * {@code <nonce>.<payload>.<mac>}: the payload holds the flow, the expiry
+ * and the user it was issued for, and the HMAC covers nonce and payload; it
+ * is compared in constant time. The nonce also goes to the browser that
+ * asked for the state, in a cookie, and the callback must come back with
+ * it: a state fetched by someone else is of no use in another browser. A
+ * state is good for one authorization code: a repeat callback with the same
+ * code passes, any other code fails. That binding is kept in the
+ * {@link OAuthStateStore}, so with {@code line.callback.secret} set, any node
+ * and any restart accepts the state.
+ *
+ * <p>Sessions prove which user a browser logged in as, for issuing bot-flow
+ * states: {@code <userId>.<expiry>.<mac>}, signed with the same key.
+ *
+ * <p>Code exchanges are kept by code, so a browser retry or a double
+ * redirect does not spend the code again; it fails with
+ * {@link DuplicateCallbackException} instead of getting the first
+ * callback's response. Exchanges that failed before LINE answered are
+ * forgotten, since the code may still be unused.
+ */
+@Slf4j
+@Component
+public class OAuthCallbackStore {
+
+    public enum Flow {
+        LOGIN,
+        BOT
+    }
+
+    private static final Base64.Encoder BASE64_URL = Base64.getUrlEncoder().withoutPadding();
+
+    private static final Base64.Decoder BASE64_URL_DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final OAuthStateStore stateStore;
+
+    private final Cache<String, CompletableFuture<?>> exchanges;
+
+    // Epoch milliseconds; states and sessions are checked on other nodes too.
+    private final LongSupplier clock;
+
+    private final Duration stateTtl;
+
+    private final Duration sessionTtl;
+
+    @Autowired
+    public OAuthCallbackStore(OAuthStateStore stateStore,
+                              @Value("${line.callback.ttl_ms:600000}") long ttlMs,
+                              @Value("${line.callback.store_size:100000}") long maximumSize,
+                              @Value("${line.callback.session_ttl_hours:24}") long sessionTtlHours,
+                              @Value("${line.callback.secret:}") String secret,
+                              @Value("${cluster.store:memory}") String clusterStore) {
+        this(stateStore, ttlMs, maximumSize, Duration.ofHours(sessionTtlHours),
+                secretKey(secret, "jdbc".equals(clusterStore)), System::currentTimeMillis);
+    }
+
+    OAuthCallbackStore(OAuthStateStore stateStore, long ttlMs, long maximumSize, Duration sessionTtl,
+                       byte[] secret, LongSupplier clock) {
+        this.stateStore = stateStore;
+        this.key = new SecretKeySpec(secret, "HmacSHA256");
+        this.clock = clock;
+        this.stateTtl = Duration.ofMillis(ttlMs);
+        this.sessionTtl = sessionTtl;
+        // LINE authorization codes are valid for 10 minutes.
+        this.exchanges = CacheBuilder.newBuilder()
+                .expireAfterWrite(Duration.ofMillis(ttlMs))
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    private static byte[] secretKey(String secret, boolean clustered) {
+        if (secret != null && !secret.isEmpty()) {
+            byte[] bytes = secret.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length < 32) {
+                throw new IllegalStateException("line.callback.secret must be at least 32 bytes");
+            }
+            return bytes;
+        }
+        if (clustered) {
+            throw new IllegalStateException("line.callback.secret is required with cluster.store=jdbc");
+        }
+        log.warn("line.callback.secret is not set; OAuth states and sessions will not survive a restart");
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return bytes;
+    }
+
+    // userId is null for the login flow.
+    public String issueState(Flow flow, String userId) {
+        byte[] nonce = new byte[16];
+        random.nextBytes(nonce);
+        String encodedNonce = BASE64_URL.encodeToString(nonce);
+        long expiresAt = clock.getAsLong() + stateTtl.toMillis();
+        String payload = BASE64_URL.encodeToString((flow + ":" + expiresAt + ":" + (userId == null ? "" : userId))
+                .getBytes(StandardCharsets.UTF_8));
+        String signed = encodedNonce + "." + payload;
+        return signed + "." + BASE64_URL.encodeToString(mac("STATE:" + signed));
+    }
+
+    // What the browser that asked for the state keeps in its cookie.
+    public static String browserNonce(String state) {
+        int dot = state.indexOf('.');
+        return dot > 0 ? state.substring(0, dot) : state;
+    }
+
+    /**
+     * The state as issued if it is genuine, unexpired, for this flow,
+     * presented by the browser it was issued to and not yet used with a
+     * different code; otherwise null.
+     */
+    public IssuedState validateState(Flow flow, String state, String code, String browserNonce) {
+        if (state == null || code == null || browserNonce == null) {
+            return null;
+        }
+        int nonceDot = state.indexOf('.');
+        int macDot = state.lastIndexOf('.');
+        if (nonceDot <= 0 || macDot <= nonceDot) {
+            return null;
+        }
+        String nonce = state.substring(0, nonceDot);
+        if (!MessageDigest.isEqual(nonce.getBytes(StandardCharsets.US_ASCII),
+                browserNonce.getBytes(StandardCharsets.US_ASCII))) {
+            return null;
+        }
+        String[] fields;
+        byte[] given;
+        try {
+            given = BASE64_URL_DECODER.decode(state.substring(macDot + 1));
+            if (!MessageDigest.isEqual(mac("STATE:" + state.substring(0, macDot)), given)) {
+                return null;
+            }
+            fields = new String(BASE64_URL_DECODER.decode(state.substring(nonceDot + 1, macDot)),
+                    StandardCharsets.UTF_8).split(":", 3);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (fields.length != 3 || !flow.name().equals(fields[0])) {
+            return null;
+        }
+        long expiresAt;
+        try {
+            expiresAt = Long.parseLong(fields[1]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (clock.getAsLong() >= expiresAt || !stateStore.bind(nonce, code, expiresAt)) {
+            return null;
+        }
+        return new IssuedState(flow, fields[2].isEmpty() ? null : fields[2]);
+    }
+
+    public String issueSession(String userId) {
+        long expiresAt = clock.getAsLong() + sessionTtl.toMillis();
+        String payload = userId + "." + expiresAt;
+        return payload + "." + BASE64_URL.encodeToString(mac("SESSION:" + payload));
+    }
+
+    // The user the session was issued for, or null if it is forged or expired.
+    public String sessionUser(String session) {
+        if (session == null) {
+            return null;
+        }
+        int macDot = session.lastIndexOf('.');
+        int expiryDot = macDot > 0 ? session.lastIndexOf('.', macDot - 1) : -1;
+        if (expiryDot <= 0) {
+            return null;
+        }
+        String payload = session.substring(0, macDot);
+        byte[] given;
+        long expiresAt;
+        try {
+            given = BASE64_URL_DECODER.decode(session.substring(macDot + 1));
+            expiresAt = Long.parseLong(session.substring(expiryDot + 1, macDot));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(mac("SESSION:" + payload), given) || clock.getAsLong() >= expiresAt) {
+            return null;
+        }
+        return session.substring(0, expiryDot);
+    }
+
+    public Duration getStateTtl() {
+        return stateTtl;
+    }
+
+    public Duration getSessionTtl() {
+        return sessionTtl;
+    }
+
+    /**
+     * Runs the exchange for this code, unless one is already running or
+     * finished for it: then the future fails with
+     * {@link DuplicateCallbackException}, since the first callback's response
+     * (and its session cookie) belongs to whoever sent it.
+     */
+    public <T> CompletableFuture<T> exchangeOnce(Flow flow, String code, Callable<CompletableFuture<T>> exchange) {
+        String exchangeKey = flow + ":" + code;
+        CompletableFuture<T> mine = new CompletableFuture<>();
+        if (exchanges.asMap().putIfAbsent(exchangeKey, mine) != null) {
+            log.info("duplicate {} callback, code already exchanged", flow);
+            return CompletableFuture.failedFuture(new DuplicateCallbackException());
+        }
+
+        CompletableFuture<T> source;
+        try {
+            source = exchange.call();
+        } catch (Exception e) {
+            source = CompletableFuture.failedFuture(e);
+        }
+        source.whenComplete((result, error) -> {
+            if (error != null) {
+                exchanges.asMap().remove(exchangeKey, mine);
+                mine.completeExceptionally(error);
+            } else {
+                mine.complete(result);
+            }
+        });
+        return mine;
+    }
+
+    private byte[] mac(String message) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            mac.update(message.getBytes(StandardCharsets.UTF_8));
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void pruneStates() {
+        stateStore.prune(clock.getAsLong());
+    }
+
+    public static final class IssuedState {
+
+        private final Flow flow;
+
+        private final String userId;
+
+        IssuedState(Flow flow, String userId) {
+            this.flow = flow;
+            this.userId = userId;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+    }
+
+    public static class DuplicateCallbackException extends RuntimeException {
+
+        public DuplicateCallbackException() {
+            super("authorization code already used");
+        }
+    }
+}
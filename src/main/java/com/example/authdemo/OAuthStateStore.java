@@ -0,0 +1,20 @@
+package com.example.authdemo;
+
+/**
+ * Which authorization code each issued OAuth state was first used with.
+ * States themselves are signed and carry their own expiry, so this is all
+ * a node needs from the others to accept a callback for a state issued
+ * elsewhere.
+ */
+public interface OAuthStateStore {
+
+    /**
+     * Binds the state's nonce to {@code code} unless it is bound already.
+     * True if it is now bound to {@code code}; false if it was used with a
+     * different one.
+     */
+    boolean bind(String nonce, String code, long expiresAtMillis);
+
+    // Drops bindings of states that have expired.
+    void prune(long nowMillis);
+}
@@ -0,0 +1,11 @@
+package com.example.authdemo;
+
+/**
+ * One queued notify message. {@code dedupKey} is unique across the
+ * outbox, so the same message enqueued twice (by a retried tick, or by two
+ * nodes during a rebalance) is stored and sent once. {@code formBody} is
+ * the already encoded request body; {@code jobId} is null for tick messages.
+ */
+public record OutboundNotification(long id, String dedupKey, String userId, String jobId, String formBody,
+                                   int attempts) {
+}
@@ -0,0 +1,43 @@
+package com.example.authdemo;
+
+import ch.qos.logback.classic.pattern.MessageConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import java.util.regex.Pattern;
+
+/**
+ * Replaces {@code %m} in logback-spring.xml so tokens and secrets are
+ * masked in every log line, whatever logged them: JSON bodies from the LINE
+ * token endpoints, form bodies, Authorization headers and record toStrings.
+ */
+public class RedactingMessageConverter extends MessageConverter {
+
+    private static final Pattern JSON_FIELD = Pattern.compile(
+            "\"(access_token|refresh_token|id_token|client_secret)\"\\s*:\\s*\"[^\"]*\"");
+
+    private static final Pattern FORM_FIELD = Pattern.compile(
+            "\\b(access_token|refresh_token|id_token|client_secret|code)=[^&\\s,]+");
+
+    private static final Pattern BEARER = Pattern.compile("Bearer\\s+[^\\s,\"\\]]+");
+
+    // UserInfo prints these as true/false, which is safe to keep.
+    private static final Pattern RECORD_FIELD = Pattern.compile(
+            "\\b(accessToken|refreshToken|idToken|botAccessToken)=(?!true\\b|false\\b|null\\b)[^,\\]\\s)]+");
+
+    @Override
+    public String convert(ILoggingEvent event) {
+        return redact(event.getFormattedMessage());
+    }
+
+    static String redact(String message) {
+        // Most lines mention none of these; skip the regexes for them.
+        if (message == null || !(message.contains("oken") || message.contains("secret")
+                || message.contains("Bearer") || message.contains("code="))) {
+            return message;
+        }
+        message = JSON_FIELD.matcher(message).replaceAll("\"$1\":\"***\"");
+        message = FORM_FIELD.matcher(message).replaceAll("$1=***");
+        message = BEARER.matcher(message).replaceAll("Bearer ***");
+        return RECORD_FIELD.matcher(message).replaceAll("$1=***");
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.authdemo;
+
+/**
+ * Published when a user's access token was found expired or close to expiry
+ * outside the refresh scheduler, e.g. by a verify on the notify path.
+ */
+public record TokenExpiringEvent(UserInfo user) {
+}
@@ -0,0 +1,175 @@
+package com.example.authdemo;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes LINE Login access tokens shortly before they expire. Every user
+ * with a known expiry has one timer task, due {@code refreshAhead} before
+ * expiry minus a random jitter so that users who logged in together are not
+ * all refreshed in the same second. A task replaced by a newer one, or whose
+ * user is removed, is cancelled and leaves the timer's queue at once. A
+ * fixed pool caps how many refresh calls run at once.
+ */
+@Slf4j
+@Component
+// Its timer must run from startup.
+@Lazy(false)
+public class TokenRefreshScheduler {
+
+    private static final Duration RETRY_DELAY = Duration.ofMinutes(5);
+
+    private final UserService userService;
+
+    private final Duration refreshAhead;
+
+    private final Duration jitter;
+
+    private final ScheduledThreadPoolExecutor timer;
+
+    // The live task per user.
+    private final Map<String, RefreshTask> scheduled = new ConcurrentHashMap<>();
+
+    private final ExecutorService workers;
+
+    @Autowired
+    public TokenRefreshScheduler(UserService userService,
+                                 @Value("${line.refresh_ahead_seconds:86400}") long refreshAheadSeconds,
+                                 @Value("${line.refresh_jitter_seconds:3600}") long jitterSeconds,
+                                 @Value("${line.refresh_concurrency:4}") int concurrency) {
+        this.userService = userService;
+        this.refreshAhead = Duration.ofSeconds(refreshAheadSeconds);
+        this.jitter = Duration.ofSeconds(jitterSeconds);
+        this.workers = Executors.newFixedThreadPool(Math.max(1, concurrency),
+                new ThreadFactoryBuilder().setNameFormat("token-refresh-%d").setDaemon(true).build());
+        this.timer = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("token-refresh-timer").setDaemon(true).build());
+        // Cancelled tasks would otherwise sit in the queue until their due time, up to a token lifetime.
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    @EventListener
+    public void onUserSaved(UserSavedEvent event) {
+        UserInfo user = event.user();
+        Instant expiresAt = user.getAccessTokenExpiresAt();
+        if (expiresAt == null || user.getRefreshToken() == null) {
+            return;
+        }
+        Instant due = expiresAt.minus(refreshAhead).minusMillis(randomMillis(jitter));
+        schedule(user.getUserId(), due);
+    }
+
+    @EventListener
+    public void onTokenExpiring(TokenExpiringEvent event) {
+        // Still spread out: a burst of expired tokens found in one tick should not refresh at once.
+        schedule(event.user().getUserId(), Instant.now().plusMillis(randomMillis(Duration.ofSeconds(30))));
+    }
+
+    @EventListener
+    public void onUserRemoved(UserRemovedEvent event) {
+        RefreshTask task = scheduled.remove(event.userId());
+        if (task != null && task.future != null) {
+            task.future.cancel(false);
+        }
+    }
+
+    // Users stored before the last restart are not scheduled yet. Read page by page from the
+    // store, without going through the user cache, so the restart stays lazy.
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadExisting() {
+        workers.submit(() -> {
+            userService.forEachExpiringBefore(Instant.MAX, user -> onUserSaved(new UserSavedEvent(user)));
+            log.info("token refresh scheduler tracking {} users", scheduled.size());
+        });
+    }
+
+    public int size() {
+        return scheduled.size();
+    }
+
+    private void schedule(String userId, Instant due) {
+        Instant now = Instant.now();
+        if (due.isBefore(now)) {
+            due = now;
+        }
+        if (timer.isShutdown()) {
+            return;
+        }
+        // Registered before it is handed to the timer: with no delay it can fire before schedule returns.
+        RefreshTask task = new RefreshTask(userId);
+        RefreshTask replaced = scheduled.put(userId, task);
+        if (replaced != null && replaced.future != null) {
+            replaced.future.cancel(false);
+        }
+        task.future = timer.schedule(() -> workers.submit(() -> refresh(task)),
+                Duration.between(now, due).toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void refresh(RefreshTask task) {
+        // Replaced after it fired, while waiting for a worker.
+        if (scheduled.get(task.userId) != task) {
+            return;
+        }
+        UserInfo user = userService.getUserInfo(task.userId);
+        if (user == null) {
+            scheduled.remove(task.userId, task);
+            return;
+        }
+        try {
+            // On success saveUserInfo publishes UserSavedEvent, which queues the next refresh.
+            if (userService.refreshAccessToken(user)) {
+                return;
+            }
+            log.info("refresh for {} was rejected", task.userId);
+        } catch (Exception e) {
+            log.info("refresh for {} failed: {}", task.userId, e.getMessage());
+        }
+        Instant expiresAt = user.getAccessTokenExpiresAt();
+        if (expiresAt != null && expiresAt.isAfter(Instant.now())) {
+            schedule(task.userId, Instant.now().plus(RETRY_DELAY));
+        } else {
+            scheduled.remove(task.userId, task);
+        }
+    }
+
+    private static long randomMillis(Duration bound) {
+        long millis = bound.toMillis();
+        return millis <= 0 ? 0 : ThreadLocalRandom.current().nextLong(millis);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private static final class RefreshTask {
+
+        private final String userId;
+
+        // Set before the task is published in scheduled, so whoever replaces it can cancel it.
+        private volatile ScheduledFuture<?> future;
+
+        RefreshTask(String userId) {
+            this.userId = userId;
+        }
+    }
+}
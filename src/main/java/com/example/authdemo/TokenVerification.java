@@ -0,0 +1,34 @@
+package com.example.authdemo;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Outcome of POST /v2/oauth/verify for one access token.
+ */
+public record TokenVerification(Status status, Instant expiresAt) {
+
+    public enum Status {
+        VALID,
+        // LINE answered 400: the token is no longer accepted.
+        EXPIRED,
+        // Wrong scope, wrong channel or any other unexpected answer.
+        INVALID
+    }
+
+    public static TokenVerification valid(long expiresInSeconds) {
+        return new TokenVerification(Status.VALID, Instant.now().plusSeconds(expiresInSeconds));
+    }
+
+    public static TokenVerification expired() {
+        return new TokenVerification(Status.EXPIRED, Instant.now());
+    }
+
+    public static TokenVerification invalid() {
+        return new TokenVerification(Status.INVALID, Instant.now());
+    }
+
+    public boolean expiresWithin(Duration duration) {
+        return expiresAt.isBefore(Instant.now().plus(duration));
+    }
+}
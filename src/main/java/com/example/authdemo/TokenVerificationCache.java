@@ -0,0 +1,106 @@
+package com.example.authdemo;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers verify results per access token so that a failed notify does not
+ * cost a verify round-trip every time. A valid result is answered locally
+ * until the token gets within {@code refreshMargin} of its expiry; negative
+ * results are kept only briefly. Concurrent lookups of the same token share
+ * one upstream call.
+ */
+@Slf4j
+@Component
+public class TokenVerificationCache {
+
+    @FunctionalInterface
+    public interface Loader {
+        TokenVerification load() throws IOException, InterruptedException;
+    }
+
+    private final Duration refreshMargin;
+
+    private final Duration negativeTtl;
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    private final Map<String, CompletableFuture<TokenVerification>> inFlight = new ConcurrentHashMap<>();
+
+    @Autowired
+    public TokenVerificationCache(@Value("${line.verify_refresh_margin_seconds:3600}") long refreshMarginSeconds,
+                                  @Value("${line.verify_negative_ttl_seconds:30}") long negativeTtlSeconds) {
+        this.refreshMargin = Duration.ofSeconds(refreshMarginSeconds);
+        this.negativeTtl = Duration.ofSeconds(negativeTtlSeconds);
+    }
+
+    public TokenVerification get(String accessToken, Loader loader) throws IOException, InterruptedException {
+        Entry entry = cache.get(accessToken);
+        if (entry != null && entry.isFresh(Instant.now())) {
+            return entry.verification;
+        }
+
+        CompletableFuture<TokenVerification> mine = new CompletableFuture<>();
+        CompletableFuture<TokenVerification> existing = inFlight.putIfAbsent(accessToken, mine);
+        if (existing != null) {
+            return Utils.await(existing);
+        }
+        try {
+            TokenVerification verification = loader.load();
+            cache.put(accessToken, new Entry(verification, freshUntil(verification)));
+            mine.complete(verification);
+            return verification;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(accessToken, mine);
+        }
+    }
+
+    // Refreshed and revoked access tokens will not be verified again.
+    @EventListener
+    public void onUserEvent(UserEvent event) {
+        if ((event.type() == UserEvent.Type.TOKEN_REFRESHED || event.type() == UserEvent.Type.REVOKED)
+                && event.obsoleteToken() != null) {
+            invalidate(event.obsoleteToken());
+        }
+    }
+
+    public void invalidate(String accessToken) {
+        if (accessToken != null) {
+            cache.remove(accessToken);
+        }
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void prune() {
+        Instant now = Instant.now();
+        cache.values().removeIf(entry -> !entry.isFresh(now));
+    }
+
+    private Instant freshUntil(TokenVerification verification) {
+        if (verification.status() == TokenVerification.Status.VALID) {
+            return verification.expiresAt().minus(refreshMargin);
+        }
+        return Instant.now().plus(negativeTtl);
+    }
+
+    private record Entry(TokenVerification verification, Instant freshUntil) {
+
+        boolean isFresh(Instant now) {
+            return now.isBefore(freshUntil);
+        }
+    }
+}
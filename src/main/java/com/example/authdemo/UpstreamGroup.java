@@ -0,0 +1,18 @@
+package com.example.authdemo;
+
+/**
+ * LINE endpoints that share a circuit breaker and a concurrency bulkhead in
+ * {@link LineApiClient}, so a slow or failing group cannot take capacity
+ * from the others.
+ */
+public enum UpstreamGroup {
+    // Login and LINE Notify authorization code exchange.
+    LOGIN,
+    PROFILE,
+    // Access token verify, refresh and revoke, and the ID token keys.
+    VERIFY,
+    // The bulk send loop only.
+    NOTIFY,
+    // Notify status and revoke, called on behalf of a user; kept apart so ticks cannot starve them.
+    NOTIFY_ACCOUNT
+}
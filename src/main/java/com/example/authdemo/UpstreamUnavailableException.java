@@ -0,0 +1,14 @@
+package com.example.authdemo;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of calling LINE when the endpoint's circuit is open or its
+ * bulkhead is full. An IOException, so callers treat it like a failed call.
+ */
+public class UpstreamUnavailableException extends IOException {
+
+    public UpstreamUnavailableException(String message) {
+        super(message);
+    }
+}
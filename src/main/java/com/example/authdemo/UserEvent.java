@@ -0,0 +1,27 @@
+package com.example.authdemo;
+
+import java.time.Instant;
+
+/**
+ * A step in a user's lifecycle, delivered through {@link UserEventBus} to
+ * listeners on the bus thread, after the request that caused it has moved
+ * on. {@code obsoleteToken} is the token the step made useless (the old
+ * access token on refresh and logout, the bot token on a Notify revoke), or
+ * null.
+ */
+public record UserEvent(Type type, String userId, String obsoleteToken, Instant time) {
+
+    public enum Type {
+        LOGGED_IN,
+        BOT_SUBSCRIBED,
+        TOKEN_REFRESHED,
+        // Logged out; the user is removed.
+        REVOKED,
+        // LINE Notify no longer accepts the user's bot token.
+        NOTIFY_REVOKED
+    }
+
+    public static UserEvent of(Type type, String userId, String obsoleteToken) {
+        return new UserEvent(type, userId, obsoleteToken, Instant.now());
+    }
+}
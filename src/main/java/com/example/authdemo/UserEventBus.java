@@ -0,0 +1,89 @@
+package com.example.authdemo;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded queue of {@link UserEvent}s with one thread handing them to the
+ * application's {@code @EventListener}s in publish order. Publishing never
+ * blocks: when the queue is full the event is dropped and counted, so
+ * listeners must only do work that is safe to miss, like evicting cache
+ * entries that expire anyway or counting.
+ *
+ * <p>Changes other components must see before the request returns (the
+ * user store and its indexes, the Notify status cache) stay on the
+ * synchronous {@link UserSavedEvent} and {@link UserRemovedEvent}.
+ */
+@Slf4j
+@Component
+public class UserEventBus {
+
+    private static final LogSampler DROP_SAMPLE = new LogSampler(1000);
+
+    private final ApplicationEventPublisher publisher;
+
+    private final BlockingQueue<UserEvent> queue;
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final Thread worker;
+
+    @Autowired
+    public UserEventBus(ApplicationEventPublisher publisher,
+                        @Value("${user_events.queue_capacity:10000}") int capacity) {
+        this.publisher = publisher;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.worker = new ThreadFactoryBuilder().setNameFormat("user-events").setDaemon(true).build()
+                .newThread(this::deliver);
+        this.worker.start();
+    }
+
+    public void publish(UserEvent event) {
+        if (!queue.offer(event)) {
+            dropped.increment();
+            if (DROP_SAMPLE.sample()) {
+                log.warn("user event queue full, dropped {} events so far", dropped.sum());
+            }
+        }
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private void deliver() {
+        while (!Thread.currentThread().isInterrupted()) {
+            UserEvent event;
+            try {
+                event = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                publisher.publishEvent(event);
+            } catch (RuntimeException e) {
+                // A failing listener must not stop the bus.
+                log.warn("user event {} listener failed", event.type(), e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        worker.interrupt();
+    }
+}
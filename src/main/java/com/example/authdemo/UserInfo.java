@@ -1,22 +1,113 @@
 package com.example.authdemo;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Kept compact since the store holds one per logged-in user: tokens are
+ * stored as UTF-8 bytes and decoded when read, and the few distinct token
+ * types and issuers are shared. The ID token is only kept until its claims
+ * have been extracted (see {@link #clearIdToken()}).
+ */
 @Slf4j
-@Getter
-@Setter
 public class UserInfo {
 
+    private static final Interner<String> SHARED = Interners.newWeakInterner();
+
+    @Getter
+    @Setter
     private String userId;
+    @Getter
+    @Setter
     private String displayName;
     private String tokenIssuer;
-    private String idToken;
+    private byte[] idToken;
     private String tokenType;
-    private String accessToken;
-    private String refreshToken;
-    private String botAccessToken;
+    private byte[] accessToken;
+    private byte[] refreshToken;
+    private byte[] botAccessToken;
+    @Getter
+    @Setter
+    private Instant accessTokenExpiresAt;
+    // LINE Notify rejected botAccessToken (revoked by us or by the user); cleared on reconnect.
+    @Getter
+    @Setter
+    private boolean notifyRevoked;
+
+    public boolean isNotifiable() {
+        return botAccessToken != null && !notifyRevoked;
+    }
+
+    public String getTokenIssuer() {
+        return tokenIssuer;
+    }
+
+    public void setTokenIssuer(String tokenIssuer) {
+        this.tokenIssuer = shared(tokenIssuer);
+    }
+
+    public String getTokenType() {
+        return tokenType;
+    }
+
+    public void setTokenType(String tokenType) {
+        this.tokenType = shared(tokenType);
+    }
+
+    public String getIdToken() {
+        return decode(idToken);
+    }
+
+    public void setIdToken(String idToken) {
+        this.idToken = encode(idToken);
+    }
+
+    // Nothing reads the ID token after login; only its claims are kept.
+    public void clearIdToken() {
+        this.idToken = null;
+    }
+
+    public String getAccessToken() {
+        return decode(accessToken);
+    }
+
+    public void setAccessToken(String accessToken) {
+        this.accessToken = encode(accessToken);
+    }
+
+    public String getRefreshToken() {
+        return decode(refreshToken);
+    }
+
+    public void setRefreshToken(String refreshToken) {
+        this.refreshToken = encode(refreshToken);
+    }
+
+    public String getBotAccessToken() {
+        return decode(botAccessToken);
+    }
+
+    public void setBotAccessToken(String botAccessToken) {
+        this.botAccessToken = encode(botAccessToken);
+    }
+
+    private static String shared(String value) {
+        return value == null ? null : SHARED.intern(value);
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String decode(byte[] value) {
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
 
     @Override
     public String toString() {
@@ -26,7 +117,8 @@ public class UserInfo {
                 .append("idToken=").append(idToken != null).append(", ")
                 .append("accessToken=").append(accessToken != null).append(", ")
                 .append("refreshToken=").append(refreshToken != null).append(", ")
-                .append("botAccessToken=").append(botAccessToken != null).append(")")
+                .append("botAccessToken=").append(botAccessToken != null).append(", ")
+                .append("notifyRevoked=").append(notifyRevoked).append(")")
                 .toString();
     }
 }
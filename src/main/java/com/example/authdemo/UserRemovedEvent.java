@@ -0,0 +1,4 @@
+package com.example.authdemo;
+
+public record UserRemovedEvent(String userId) {
+}
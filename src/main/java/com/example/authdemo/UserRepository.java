@@ -0,0 +1,79 @@
+package com.example.authdemo;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface UserRepository {
+
+    void save(UserInfo user);
+
+    UserInfo find(String userId);
+
+    List<UserInfo> findAll();
+
+    void remove(String userId);
+
+    long count();
+
+    /**
+     * Up to {@code limit} users who can receive LINE Notify messages (see
+     * {@link UserInfo#isNotifiable()}), in user ID order,
+     * starting after {@code afterUserId} (null for the first page). Pass the
+     * last user ID of a page to get the next; a short page is the last one.
+     */
+    List<UserInfo> findNotifiable(String afterUserId, int limit);
+
+    /**
+     * Up to {@code limit} users whose LINE Login access token expires before
+     * {@code before}, notifiable or not, in order of expiry (to the second)
+     * and then user ID, starting after the last user of the previous page:
+     * pass its expiry and ID (both null for the first page).
+     */
+    List<UserInfo> findExpiringBefore(Instant before, Instant afterExpiry, String afterUserId, int limit);
+
+    default void forEachNotifiable(Consumer<UserInfo> action) {
+        forEachPage(this::findNotifiable, action);
+    }
+
+    default void forEachExpiringBefore(Instant before, Consumer<UserInfo> action) {
+        int pageSize = 1000;
+        Instant afterExpiry = null;
+        String afterUserId = null;
+        List<UserInfo> page;
+        do {
+            page = findExpiringBefore(before, afterExpiry, afterUserId, pageSize);
+            if (!page.isEmpty()) {
+                // Taken before the action runs, which may refresh the token and move the user.
+                afterExpiry = page.get(page.size() - 1).getAccessTokenExpiresAt();
+                afterUserId = page.get(page.size() - 1).getUserId();
+            }
+            page.forEach(action);
+        } while (page.size() == pageSize);
+    }
+
+    private static void forEachPage(PageReader reader, Consumer<UserInfo> action) {
+        int pageSize = 1000;
+        String cursor = null;
+        List<UserInfo> page;
+        do {
+            page = reader.read(cursor, pageSize);
+            page.forEach(action);
+            cursor = page.isEmpty() ? null : page.get(page.size() - 1).getUserId();
+        } while (page.size() == pageSize);
+    }
+
+    @FunctionalInterface
+    interface PageReader {
+        List<UserInfo> read(String afterUserId, int limit);
+    }
+
+    default void saveAll(Collection<UserInfo> users) {
+        users.forEach(this::save);
+    }
+
+    default void removeAll(Collection<String> userIds) {
+        userIds.forEach(this::remove);
+    }
+}
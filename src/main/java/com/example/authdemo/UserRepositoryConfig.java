@@ -0,0 +1,33 @@
+package com.example.authdemo;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+@Configuration
+public class UserRepositoryConfig {
+
+    // Users are lost on restart; only useful for development and tests.
+    @Bean
+    @ConditionalOnProperty(name = "user_store.type", havingValue = "memory")
+    public UserRepository inMemoryUserRepository() {
+        return new InMemoryUserRepository();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "user_store.type", havingValue = "jdbc", matchIfMissing = true)
+    public UserRepository jdbcUserRepository(
+            JdbcTemplate jdbcTemplate,
+            @Value("${user_store.cache_size:100000}") long cacheSize,
+            @Value("${user_store.cache_ttl_ms:600000}") long cacheTtlMs,
+            @Value("${user_store.flush_interval_ms:500}") long flushIntervalMs,
+            @Value("${user_store.flush_batch_size:500}") int flushBatchSize,
+            @Value("${cluster.store:memory}") String clusterStore) {
+        // Other nodes write the same table only in a jdbc cluster.
+        JdbcUserChangeLog changes = "jdbc".equals(clusterStore) ? new JdbcUserChangeLog(jdbcTemplate) : null;
+        return new CachingUserRepository(new JdbcUserRepository(jdbcTemplate), cacheSize, cacheTtlMs,
+                flushIntervalMs, flushBatchSize, changes);
+    }
+}
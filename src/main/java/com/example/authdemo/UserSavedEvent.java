@@ -0,0 +1,4 @@
+package com.example.authdemo;
+
+public record UserSavedEvent(UserInfo user) {
+}
@@ -1,18 +1,19 @@
 package com.example.authdemo;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.net.URI;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
@@ -24,101 +25,178 @@ public class UserService {
     @Value("${line.client_secret}")
     private String clientSecret;
 
-    private static Map<String, UserInfo> db = new ConcurrentHashMap<>();
+    // Tokens with less time left than this are handed to the refresh scheduler.
+    private static final Duration REFRESH_THRESHOLD = Duration.ofHours(1);
+
+    private UserRepository repository;
+
+    private TokenVerificationCache verificationCache;
+
+    private ApplicationEventPublisher events;
+
+    private UserEventBus userEvents;
+
+    private LineApiClient lineApiClient;
+
+    private AppMetrics metrics;
+
+    @Autowired
+    public UserService(UserRepository repository, TokenVerificationCache verificationCache,
+                       ApplicationEventPublisher events, UserEventBus userEvents, LineApiClient lineApiClient,
+                       AppMetrics metrics) {
+        this.repository = repository;
+        this.verificationCache = verificationCache;
+        this.events = events;
+        this.userEvents = userEvents;
+        this.lineApiClient = lineApiClient;
+        this.metrics = metrics;
+    }
 
     public void saveUserInfo(UserInfo user) {
-        log.info("save user: {}", user);
-        db.put(user.getUserId(), user);
+        log.debug("save user: {}", user);
+        repository.save(user);
+        events.publishEvent(new UserSavedEvent(user));
+    }
+
+    public void saveLogin(UserInfo user) {
+        saveUserInfo(user);
+        userEvents.publish(UserEvent.of(UserEvent.Type.LOGGED_IN, user.getUserId(), null));
+    }
+
+    // previousBotToken: the token this subscription replaces, if any.
+    public void saveBotSubscription(UserInfo user, String previousBotToken) {
+        saveUserInfo(user);
+        userEvents.publish(UserEvent.of(UserEvent.Type.BOT_SUBSCRIBED, user.getUserId(), previousBotToken));
     }
 
     public UserInfo getUserInfo(String userId) {
-        log.info("get user: {}", userId);
-        return db.get(userId);
+        log.debug("get user: {}", userId);
+        return repository.find(userId);
     }
 
     public List<UserInfo> getAllUsers() {
-        return db.values().stream().toList();
+        return repository.findAll();
+    }
+
+    // See UserRepository#findNotifiable.
+    public List<UserInfo> findNotifiable(String afterUserId, int limit) {
+        return repository.findNotifiable(afterUserId, limit);
+    }
+
+    public void forEachNotifiable(Consumer<UserInfo> action) {
+        repository.forEachNotifiable(action);
+    }
+
+    public void forEachExpiringBefore(Instant before, Consumer<UserInfo> action) {
+        repository.forEachExpiringBefore(before, action);
+    }
+
+    // LINE Notify no longer accepts the user's bot token; stop notifying them until they reconnect.
+    public void markNotifyRevoked(UserInfo user) {
+        if (!user.isNotifyRevoked()) {
+            log.info("LINE Notify revoked for userId {}", user.getUserId());
+            user.setNotifyRevoked(true);
+            saveUserInfo(user);
+            userEvents.publish(UserEvent.of(UserEvent.Type.NOTIFY_REVOKED, user.getUserId(),
+                    user.getBotAccessToken()));
+        }
     }
 
     public void removeUserInfo(String userId) {
         log.info("remove user: {}", userId);
-        db.remove(userId);
+        repository.remove(userId);
+        events.publishEvent(new UserRemovedEvent(userId));
     }
 
     public boolean verify(UserInfo user) throws IOException, InterruptedException {
-        log.info("Verify access token for user {}", user.getUserId());
+        TokenVerification verification = verificationCache.get(user.getAccessToken(), () -> requestVerify(user));
+        metrics.recordVerify(verification.status());
+        switch (verification.status()) {
+            case VALID:
+                if (user.getAccessTokenExpiresAt() == null) {
+                    // Users stored before expiry was tracked: learn it once so the scheduler can take over.
+                    user.setAccessTokenExpiresAt(verification.expiresAt());
+                    saveUserInfo(user);
+                } else if (verification.expiresWithin(REFRESH_THRESHOLD)) {
+                    log.debug("This token is almost expired. Schedule a refresh.");
+                    events.publishEvent(new TokenExpiringEvent(user));
+                }
+                return true;
+            case EXPIRED:
+                log.debug("This token is expired. Schedule a refresh.");
+                events.publishEvent(new TokenExpiringEvent(user));
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private TokenVerification requestVerify(UserInfo user) throws IOException, InterruptedException {
+        log.debug("Verify access token for user {}", user.getUserId());
+        metrics.recordVerifyCall();
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("https://api.line.me/v2/oauth/verify"))
-                .header("Content-Type", "application/x-www-form-urlencoded")
-                .timeout(Duration.ofMinutes(1))
-                .POST(HttpRequest.BodyPublishers.ofString(
-                        "access_token=" + Utils.urlEncoder(user.getAccessToken())))
-                .build();
+        HttpRequest request = lineApiClient.post(LineEndpoint.VERIFY, null,
+                "access_token=" + Utils.urlEncoder(user.getAccessToken()));
 
-        HttpResponse<String> response = Utils.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        log.info("verify response: {}\n{}", response.statusCode(), response.body());
+        HttpResponse<LineResponse<LineVerifyResponse>> response = lineApiClient.send(LineEndpoint.VERIFY, request,
+                Utils.jsonBody(LineVerifyResponse.class));
+        log.debug("verify response: {}\n{}", response.statusCode(), response.body());
 
         if (response.statusCode() == HttpStatus.OK.value()) {
 
-            // Read response data
-            Map<String, String> data = Utils.parse(response.body());
+            LineVerifyResponse data = response.body().body();
 
             // Permissions granted to the access token.
             // P: You have permission to access the user's profile information.
-            if (!"P".equals(data.get("scope"))) {
+            if (!"P".equals(data.scope())) {
                 log.info("scope is wrong!");
-                return false;
+                return TokenVerification.invalid();
             }
 
-            if (!clientId.equals(data.get("client_id"))) {
+            if (!clientId.equals(data.clientId())) {
                 log.info("client_id mismatch!");
-                return false;
+                return TokenVerification.invalid();
             }
 
             // Number of seconds until the access token expires.
-            long expiresIn = Long.parseLong(data.get("expires_in"));
-            if (expiresIn < 3600) {
-                log.info("This token is almost expired. Refresh the token.");
-                return refreshAccessToken(user);
-            }
-            return true;
+            return TokenVerification.valid(data.expiresIn());
         } else if (response.statusCode() == 400) {
-            log.info("This token is expired. Try to refresh the token.");
-            return refreshAccessToken(user);
+            return TokenVerification.expired();
         }
-        return false;
+        return TokenVerification.invalid();
     }
 
-    private boolean refreshAccessToken(UserInfo user) throws IOException, InterruptedException {
-        log.info("Refresh access token for userId {}", user.getUserId());
+    /**
+     * Called by {@link TokenRefreshScheduler} only; request and tick threads
+     * never refresh tokens themselves.
+     */
+    public boolean refreshAccessToken(UserInfo user) throws IOException, InterruptedException {
+        log.debug("Refresh access token for userId {}", user.getUserId());
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("https://api.line.me/v2/oauth/accessToken"))
-                .header("Content-Type", "application/x-www-form-urlencoded")
-                .timeout(Duration.ofMinutes(1))
-                .POST(HttpRequest.BodyPublishers.ofString(
-                        "grant_type=refresh_token" +
-                                "&refresh_token=" + Utils.urlEncoder(user.getRefreshToken()) +
-                                "&client_id=" + clientId +
-                                "&client_secret=" + clientSecret))
-                .build();
+        HttpRequest request = lineApiClient.post(LineEndpoint.REFRESH, null,
+                "grant_type=refresh_token" +
+                        "&refresh_token=" + Utils.urlEncoder(user.getRefreshToken()) +
+                        "&client_id=" + clientId +
+                        "&client_secret=" + clientSecret);
 
-        HttpResponse<String> response = Utils.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        log.info("Refresh response: {}\n{}", response.statusCode(), response.body());
+        HttpResponse<LineResponse<LineTokenResponse>> response = lineApiClient.send(LineEndpoint.REFRESH, request,
+                Utils.jsonBody(LineTokenResponse.class));
+        log.debug("Refresh response: {}\n{}", response.statusCode(), response.body());
+        metrics.recordRefresh(response.statusCode() == HttpStatus.OK.value());
 
         if (response.statusCode() == HttpStatus.OK.value()) {
 
-            // Read response data
-            Map<String, String> data = Utils.parse(response.body());
+            LineTokenResponse data = response.body().body();
 
-            user.setTokenType(data.get("token_type"));
-            user.setAccessToken(data.get("access_token"));
-            user.setRefreshToken(data.get("refresh_token"));
+            String previousToken = user.getAccessToken();
+            user.setTokenType(data.tokenType());
+            user.setAccessToken(data.accessToken());
+            user.setRefreshToken(data.refreshToken());
+            user.setAccessTokenExpiresAt(Instant.now().plusSeconds(data.expiresIn()));
+            saveUserInfo(user);
+            userEvents.publish(UserEvent.of(UserEvent.Type.TOKEN_REFRESHED, user.getUserId(), previousToken));
 
             return true;
-        } else {
-
         }
         return false;
     }
@@ -126,18 +204,14 @@ public class UserService {
     public boolean revokeAccessToken(UserInfo user) throws IOException, InterruptedException {
         log.info("Revoke access token for userId {}", user.getUserId());
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create("https://api.line.me/v2/oauth/revoke"))
-                .header("Content-Type", "application/x-www-form-urlencoded")
-                .timeout(Duration.ofMinutes(1))
-                .POST(HttpRequest.BodyPublishers.ofString(
-                        "refresh_token=" + Utils.urlEncoder(user.getRefreshToken())))
-                .build();
+        HttpRequest request = lineApiClient.post(LineEndpoint.REVOKE, null,
+                "refresh_token=" + Utils.urlEncoder(user.getRefreshToken()));
 
-        HttpResponse<String> response = Utils.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> response = lineApiClient.send(LineEndpoint.REVOKE, request);
         log.info("logout response: {}\n{}", response.statusCode(), response.body());
 
-        db.remove(user.getUserId());
+        removeUserInfo(user.getUserId());
+        userEvents.publish(UserEvent.of(UserEvent.Type.REVOKED, user.getUserId(), user.getAccessToken()));
 
         return response.statusCode() == HttpStatus.OK.value();
     }
@@ -1,31 +1,70 @@
 package com.example.authdemo;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 @Slf4j
 public class Utils {
 
-    private static final ObjectMapper mapper = new ObjectMapper();
+    // LINE adds fields over time; a new one must not break decoding.
+    // Epoch-second numbers (exp, iat) decode straight into Instant.
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
 
-    public static final HttpClient httpClient = HttpClient.newBuilder()
-            .version(HttpClient.Version.HTTP_1_1)
-            .build();
+    private static final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
 
-    public static Map<String, String> parse(String json) throws JsonProcessingException {
-        return mapper.readValue(json, Map.class);
+    public static <T> T parse(String json, Class<T> type) throws JsonProcessingException {
+        return reader(type).readValue(json);
     }
 
-    public static Map<String, String> parse(byte[] bytes) throws IOException {
-        return mapper.readValue(bytes, Map.class);
+    public static <T> T parse(byte[] bytes, Class<T> type) throws IOException {
+        return reader(type).readValue(bytes);
+    }
+
+    public static JsonNode parseTree(byte[] bytes) throws IOException {
+        return mapper.readTree(bytes);
+    }
+
+    /**
+     * Decodes a 200 response straight from its bytes into {@code type},
+     * without building an intermediate String; any other status keeps the
+     * raw body as text.
+     */
+    public static <T> HttpResponse.BodyHandler<LineResponse<T>> jsonBody(Class<T> type) {
+        ObjectReader reader = reader(type);
+        return info -> {
+            if (info.statusCode() != 200) {
+                return HttpResponse.BodySubscribers.mapping(
+                        HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8),
+                        body -> new LineResponse<T>(null, body));
+            }
+            return HttpResponse.BodySubscribers.mapping(
+                    HttpResponse.BodySubscribers.ofByteArray(),
+                    bytes -> {
+                        try {
+                            return new LineResponse<T>(reader.<T>readValue(bytes), null);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+        };
     }
 
     public static String stringify(Map<String, String> obj) throws JsonProcessingException {
@@ -39,4 +78,34 @@ public class Utils {
     public static String urlEncoder(String value) {
         return URLEncoder.encode(value, StandardCharsets.UTF_8);
     }
+
+    /**
+     * Waits for a future wrapping a blocking LINE call, rethrowing its
+     * failure as thrown by the call itself; other checked causes become an
+     * IOException.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof InterruptedException interruptedException) {
+                throw interruptedException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static ObjectReader reader(Class<?> type) {
+        return readers.computeIfAbsent(type, mapper::readerFor);
+    }
 }
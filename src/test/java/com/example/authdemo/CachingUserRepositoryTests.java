@@ -0,0 +1,138 @@
+package com.example.authdemo;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CachingUserRepositoryTests {
+
+  private final InMemoryUserRepository backing = new InMemoryUserRepository();
+
+  // Never flushes on its own; the tests flush when they mean to.
+  private final CachingUserRepository repository = new CachingUserRepository(backing, 100, 3_600_000, 100);
+
+  @AfterEach
+  void tearDown() {
+    repository.close();
+  }
+
+  @Test
+  void pendingWritesAreAppliedToEveryPage() {
+    for (int i = 1; i <= 6; i++) {
+      repository.save(user("U" + i, true));
+    }
+    repository.flush();
+
+    repository.remove("U2");
+    repository.save(user("U4", false));
+    repository.save(user("U7", true));
+    repository.save(user("U0", true));
+
+    assertEquals(List.of("U0", "U1", "U3", "U5", "U6", "U7"), notifiableIds(repository, 2));
+    assertEquals(List.of("U1", "U2", "U3", "U4", "U5", "U6"), notifiableIds(backing, 2));
+  }
+
+  @Test
+  void pendingRemovesDoNotShortenAFullPage() {
+    for (int i = 1; i <= 5; i++) {
+      repository.save(user("U" + i, true));
+    }
+    repository.flush();
+    repository.remove("U1");
+    repository.remove("U2");
+
+    // A short page would end the caller's scan before U5.
+    assertEquals(List.of("U3", "U4"), ids(repository.findNotifiable(null, 2)));
+    assertEquals(List.of("U5"), ids(repository.findNotifiable("U4", 2)));
+  }
+
+  @Test
+  void pendingSaveAfterAFullPageWaitsForItsOwnPage() {
+    for (int i = 1; i <= 4; i++) {
+      repository.save(user("U" + i, true));
+    }
+    repository.flush();
+    repository.save(user("U9", true));
+
+    assertEquals(List.of("U1", "U2"), ids(repository.findNotifiable(null, 2)));
+    assertEquals(List.of("U3", "U4"), ids(repository.findNotifiable("U2", 2)));
+    assertEquals(List.of("U9"), ids(repository.findNotifiable("U4", 2)));
+  }
+
+  @Test
+  void removedUserIsNotReadBackBeforeTheFlush() {
+    repository.save(user("U1", true));
+    repository.flush();
+    repository.remove("U1");
+
+    assertNull(repository.find("U1"));
+    assertEquals(List.of(), repository.findAll());
+
+    repository.flush();
+    assertNull(backing.find("U1"));
+  }
+
+  @Test
+  void pendingWritesKeepTheExpiryOrder() {
+    Instant now = Instant.parse("2022-10-01T00:00:00Z");
+    repository.save(expiring("A", now.plusSeconds(5)));
+    repository.save(expiring("B", now.plusSeconds(5)));
+    repository.save(expiring("C", now.plusSeconds(10)));
+    repository.flush();
+
+    repository.remove("A");
+    repository.save(expiring("C", now.plusSeconds(1)));
+    repository.save(expiring("D", now.plusSeconds(5)));
+
+    // C is still stored under its old expiry, past the first page.
+    List<String> seen = new ArrayList<>();
+    Instant afterExpiry = null;
+    String afterUserId = null;
+    List<UserInfo> page;
+    do {
+      page = repository.findExpiringBefore(now.plusSeconds(60), afterExpiry, afterUserId, 2);
+      seen.addAll(ids(page));
+      if (!page.isEmpty()) {
+        afterExpiry = page.get(page.size() - 1).getAccessTokenExpiresAt();
+        afterUserId = page.get(page.size() - 1).getUserId();
+      }
+    } while (page.size() == 2);
+    assertEquals(List.of("C", "B", "D"), seen);
+  }
+
+  private static List<String> notifiableIds(UserRepository repository, int pageSize) {
+    List<String> seen = new ArrayList<>();
+    String cursor = null;
+    List<UserInfo> page;
+    do {
+      page = repository.findNotifiable(cursor, pageSize);
+      seen.addAll(ids(page));
+      cursor = page.isEmpty() ? null : page.get(page.size() - 1).getUserId();
+    } while (page.size() == pageSize);
+    return seen;
+  }
+
+  private static List<String> ids(List<UserInfo> users) {
+    return users.stream().map(UserInfo::getUserId).toList();
+  }
+
+  private static UserInfo user(String userId, boolean notifiable) {
+    UserInfo user = new UserInfo();
+    user.setUserId(userId);
+    user.setBotAccessToken(notifiable ? "bot-" + userId : null);
+    return user;
+  }
+
+  private static UserInfo expiring(String userId, Instant expiresAt) {
+    UserInfo user = new UserInfo();
+    user.setUserId(userId);
+    user.setAccessTokenExpiresAt(expiresAt);
+    return user;
+  }
+}
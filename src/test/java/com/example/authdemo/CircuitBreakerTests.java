@@ -0,0 +1,80 @@
+package com.example.authdemo;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class CircuitBreakerTests {
+
+  private long now;
+
+  private final CircuitBreaker breaker = new CircuitBreaker(
+      new CircuitBreaker.Settings(4, 4, 50, Duration.ofSeconds(10), 2), () -> now);
+
+  @Test
+  void staysClosedUntilMinCallsAreSeen() {
+    call(false);
+    call(false);
+    call(false);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    call(true);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+  }
+
+  @Test
+  void openCircuitRefusesCallsUntilOpenDurationPasses() {
+    trip();
+    assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+
+    now += Duration.ofSeconds(10).toNanos();
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    assertNotEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+  }
+
+  @Test
+  void halfOpenClosesAfterSuccessfulProbes() {
+    trip();
+    now += Duration.ofSeconds(10).toNanos();
+    long first = breaker.tryAcquire();
+    long second = breaker.tryAcquire();
+    // Only halfOpenCalls probes at a time.
+    assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+
+    breaker.onResult(first, true);
+    breaker.onResult(second, true);
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+  }
+
+  @Test
+  void failedProbeReopens() {
+    trip();
+    now += Duration.ofSeconds(10).toNanos();
+    breaker.onResult(breaker.tryAcquire(), false);
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+  }
+
+  @Test
+  void resultsFromBeforeAStateChangeAreIgnored() {
+    long stale = breaker.tryAcquire();
+    trip();
+    now += Duration.ofSeconds(10).toNanos();
+    long probe = breaker.tryAcquire();
+    breaker.onResult(stale, false);
+    assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    breaker.onResult(probe, true);
+  }
+
+  private void trip() {
+    for (int i = 0; i < 4; i++) {
+      call(false);
+    }
+    assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+  }
+
+  private void call(boolean success) {
+    breaker.onResult(breaker.tryAcquire(), success);
+  }
+}
@@ -0,0 +1,114 @@
+package com.example.authdemo;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClusterMembershipTests {
+
+  private static final List<String> USERS = IntStream.range(0, 3000)
+      .mapToObj(i -> "U" + i)
+      .collect(Collectors.toList());
+
+  private final InMemoryClusterStore store = new InMemoryClusterStore();
+
+  private final Instant start = Instant.parse("2022-10-01T00:00:00Z");
+
+  private ClusterMembership a;
+  private ClusterMembership b;
+  private ClusterMembership c;
+
+  @BeforeEach
+  void setUp() {
+    a = new ClusterMembership(store, "node-a", 15000, 128);
+    b = new ClusterMembership(store, "node-b", 15000, 128);
+    c = new ClusterMembership(store, "node-c", 15000, 128);
+    refreshAll(start, a, b, c);
+  }
+
+  @Test
+  void everyUserHasExactlyOneOwner() {
+    Map<String, String> owners = owners(a, b, c);
+    assertEquals(USERS.size(), owners.size());
+    for (ClusterMembership node : List.of(a, b, c)) {
+      long owned = owners.values().stream().filter(node.getNodeId()::equals).count();
+      assertTrue(owned > USERS.size() / 6, node.getNodeId() + " owns only " + owned);
+    }
+  }
+
+  @Test
+  void leavingNodeOnlyMovesItsOwnUsers() {
+    Map<String, String> before = owners(a, b, c);
+    c.leave();
+    refreshAll(start.plusSeconds(5), a, b);
+
+    Map<String, String> after = owners(a, b);
+    assertEquals(USERS.size(), after.size());
+    for (String user : USERS) {
+      if (!"node-c".equals(before.get(user))) {
+        assertEquals(before.get(user), after.get(user), user);
+      }
+    }
+  }
+
+  @Test
+  void joiningNodeTakesUsersFromOthers() {
+    Map<String, String> before = owners(a, b, c);
+    ClusterMembership d = new ClusterMembership(store, "node-d", 15000, 128);
+    refreshAll(start.plusSeconds(5), a, b, c, d);
+
+    Map<String, String> after = owners(a, b, c, d);
+    assertEquals(USERS.size(), after.size());
+    for (String user : USERS) {
+      if (!"node-d".equals(after.get(user))) {
+        assertEquals(before.get(user), after.get(user), user);
+      }
+    }
+    assertTrue(after.containsValue("node-d"));
+  }
+
+  @Test
+  void nodeWithExpiredLeaseIsDropped() {
+    // c stops sending heartbeats.
+    refreshAll(start.plusSeconds(10), a, b);
+    assertEquals(Set.of("node-a", "node-b", "node-c"), a.getNodes());
+
+    refreshAll(start.plusSeconds(20), a, b);
+    assertEquals(Set.of("node-a", "node-b"), a.getNodes());
+    assertEquals(USERS.size(), owners(a, b).size());
+  }
+
+  private static void refreshAll(Instant now, ClusterMembership... nodes) {
+    for (ClusterMembership node : nodes) {
+      node.refresh(now);
+    }
+    // The first nodes refreshed before the last ones had joined.
+    for (ClusterMembership node : nodes) {
+      node.refresh(now);
+    }
+  }
+
+  // Fails if two nodes both claim a user.
+  private static Map<String, String> owners(ClusterMembership... nodes) {
+    Map<String, String> owners = new HashMap<>();
+    for (String user : USERS) {
+      for (ClusterMembership node : nodes) {
+        if (node.owns(user)) {
+          String previous = owners.put(user, node.getNodeId());
+          assertEquals(null, previous, user + " owned twice");
+        }
+      }
+    }
+    return owners;
+  }
+}
@@ -0,0 +1,114 @@
+package com.example.authdemo;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryUserRepositoryTests {
+
+  private final Instant now = Instant.parse("2022-10-01T00:00:00Z");
+
+  private final InMemoryUserRepository repository = new InMemoryUserRepository();
+
+  @Test
+  void expiringUsersPageInExpiryThenIdOrder() {
+    repository.save(user("A", now.plusSeconds(10)));
+    // Same second: ordered by ID, whatever the milliseconds.
+    repository.save(user("D", now.plusMillis(5100)));
+    repository.save(user("B", now.plusMillis(5900)));
+    repository.save(user("C", now.plusSeconds(5)));
+    repository.save(user("E", now.plusSeconds(20)));
+    repository.save(user("F", null));
+
+    assertEquals(List.of("B", "C", "D", "A"), expiringIds(repository, now.plusSeconds(15), 2));
+    assertEquals(List.of("B", "C", "D"), expiringIds(repository, now.plusSeconds(6), 1));
+  }
+
+  @Test
+  void userIsFiledUnderItsLatestExpiry() {
+    UserInfo user = user("A", now.plusSeconds(5));
+    repository.save(user);
+    // Changed in place, as a token refresh does.
+    user.setAccessTokenExpiresAt(now.plusSeconds(3600));
+    repository.save(user);
+    assertEquals(List.of(), expiringIds(repository, now.plusSeconds(60), 10));
+
+    user.setAccessTokenExpiresAt(now.plusSeconds(1));
+    repository.save(user);
+    assertEquals(List.of("A"), expiringIds(repository, now.plusSeconds(60), 10));
+
+    user.setAccessTokenExpiresAt(null);
+    repository.save(user);
+    assertEquals(List.of(), expiringIds(repository, now.plusSeconds(60), 10));
+
+    repository.save(user("B", now.plusSeconds(1)));
+    repository.remove("B");
+    assertEquals(List.of(), expiringIds(repository, now.plusSeconds(60), 10));
+  }
+
+  @Test
+  void refreshingDuringTheScanVisitsEveryUserOnce() {
+    for (int i = 0; i < 2500; i++) {
+      repository.save(user(String.format("U%04d", i), now.plusSeconds(i % 7)));
+    }
+    Set<String> visited = new HashSet<>();
+    repository.forEachExpiringBefore(now.plusSeconds(60), user -> {
+      assertTrue(visited.add(user.getUserId()), user.getUserId() + " visited twice");
+      user.setAccessTokenExpiresAt(now.plusSeconds(3600));
+      repository.save(user);
+    });
+    assertEquals(2500, visited.size());
+  }
+
+  @Test
+  void notifiableIndexFollowsEverySave() {
+    UserInfo user = user("U1", null);
+    user.setBotAccessToken("bot");
+    repository.save(user);
+    repository.save(user("U2", null));
+    assertEquals(List.of("U1"), ids(repository.findNotifiable(null, 10)));
+
+    user.setNotifyRevoked(true);
+    repository.save(user);
+    assertEquals(List.of(), ids(repository.findNotifiable(null, 10)));
+
+    user.setNotifyRevoked(false);
+    repository.save(user);
+    repository.remove("U1");
+    assertEquals(List.of(), ids(repository.findNotifiable(null, 10)));
+  }
+
+  private static List<String> expiringIds(UserRepository repository, Instant before, int pageSize) {
+    List<String> seen = new ArrayList<>();
+    Instant afterExpiry = null;
+    String afterUserId = null;
+    List<UserInfo> page;
+    do {
+      page = repository.findExpiringBefore(before, afterExpiry, afterUserId, pageSize);
+      seen.addAll(ids(page));
+      if (!page.isEmpty()) {
+        afterExpiry = page.get(page.size() - 1).getAccessTokenExpiresAt();
+        afterUserId = page.get(page.size() - 1).getUserId();
+      }
+    } while (page.size() == pageSize);
+    return seen;
+  }
+
+  private static List<String> ids(List<UserInfo> users) {
+    return users.stream().map(UserInfo::getUserId).toList();
+  }
+
+  private static UserInfo user(String userId, Instant expiresAt) {
+    UserInfo user = new UserInfo();
+    user.setUserId(userId);
+    user.setAccessTokenExpiresAt(expiresAt);
+    return user;
+  }
+}
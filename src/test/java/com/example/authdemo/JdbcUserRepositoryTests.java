@@ -0,0 +1,134 @@
+package com.example.authdemo;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JdbcUserRepositoryTests {
+
+  private final Instant now = Instant.parse("2022-10-01T00:00:00Z");
+
+  private final JdbcTemplate jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+      "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", ""));
+
+  private final JdbcUserRepository repository = new JdbcUserRepository(jdbcTemplate);
+
+  @Test
+  void expiringUsersPageInExpiryThenIdOrder() {
+    repository.save(user("A", now.plusSeconds(10)));
+    repository.save(user("D", now.plusSeconds(5)));
+    repository.save(user("B", now.plusSeconds(5)));
+    repository.save(user("C", now.plusSeconds(5)));
+    repository.save(user("E", now.plusSeconds(20)));
+    repository.save(user("F", null));
+
+    // Page boundaries fall inside the run of users expiring in the same second.
+    assertEquals(List.of("B", "C", "D", "A"), expiringIds(now.plusSeconds(15), 2));
+    assertEquals(List.of("B", "C", "D", "A"), expiringIds(now.plusSeconds(15), 1));
+    assertEquals(List.of("B", "C", "D"), expiringIds(now.plusSeconds(6), 3));
+  }
+
+  @Test
+  void savedExpiryReplacesTheStoredOne() {
+    repository.save(user("A", now.plusSeconds(5)));
+    repository.save(user("A", now.plusSeconds(3600)));
+    assertEquals(List.of(), expiringIds(now.plusSeconds(60), 10));
+
+    repository.save(user("A", null));
+    repository.save(user("B", now.plusSeconds(1)));
+    repository.removeAll(List.of("B"));
+    assertEquals(List.of(), expiringIds(now.plusSeconds(60), 10));
+  }
+
+  @Test
+  void notifiableUsersPageInIdOrder() {
+    for (int i = 1; i <= 5; i++) {
+      UserInfo user = user("U" + i, null);
+      user.setBotAccessToken(i == 3 ? null : "bot-" + i);
+      user.setNotifyRevoked(i == 4);
+      repository.save(user);
+    }
+
+    assertEquals(List.of("U1", "U2"), ids(repository.findNotifiable(null, 2)));
+    assertEquals(List.of("U5"), ids(repository.findNotifiable("U2", 2)));
+
+    UserInfo revoked = repository.find("U1");
+    revoked.setNotifyRevoked(true);
+    repository.save(revoked);
+    assertEquals(List.of("U2", "U5"), ids(repository.findNotifiable(null, 10)));
+  }
+
+  @Test
+  void reopeningTheStoreKeepsItsRows() {
+    repository.save(user("A", now.plusSeconds(5)));
+    JdbcUserRepository reopened = new JdbcUserRepository(jdbcTemplate);
+    assertEquals(1, reopened.count());
+    assertEquals(now.plusSeconds(5), reopened.find("A").getAccessTokenExpiresAt());
+  }
+
+  @Test
+  void cachedCopyGivesWayToAnotherNodesWrite() throws InterruptedException {
+    try (CachingUserRepository a = shared(); CachingUserRepository b = shared()) {
+      UserInfo user = user("U1", null);
+      user.setBotAccessToken("bot");
+      user.setDisplayName("before");
+      a.save(user);
+      a.flush();
+      assertEquals("before", b.find("U1").getDisplayName());
+
+      UserInfo renamed = user("U1", null);
+      renamed.setBotAccessToken("bot");
+      renamed.setDisplayName("after");
+      a.save(renamed);
+      a.flush();
+
+      // Pages read the stored row straight away; the cached copy is evicted by b's next sync.
+      assertEquals("after", b.findNotifiable(null, 10).get(0).getDisplayName());
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (!"after".equals(b.find("U1").getDisplayName())) {
+        assertTrue(System.nanoTime() < deadline, "stale copy was never evicted");
+        Thread.sleep(10);
+      }
+    }
+  }
+
+  private CachingUserRepository shared() {
+    return new CachingUserRepository(repository, 100, 0, 50, 100, new JdbcUserChangeLog(jdbcTemplate));
+  }
+
+  private List<String> expiringIds(Instant before, int pageSize) {
+    List<String> seen = new ArrayList<>();
+    Instant afterExpiry = null;
+    String afterUserId = null;
+    List<UserInfo> page;
+    do {
+      page = repository.findExpiringBefore(before, afterExpiry, afterUserId, pageSize);
+      seen.addAll(ids(page));
+      if (!page.isEmpty()) {
+        afterExpiry = page.get(page.size() - 1).getAccessTokenExpiresAt();
+        afterUserId = page.get(page.size() - 1).getUserId();
+      }
+    } while (page.size() == pageSize);
+    return seen;
+  }
+
+  private static List<String> ids(List<UserInfo> users) {
+    return users.stream().map(UserInfo::getUserId).toList();
+  }
+
+  private static UserInfo user(String userId, Instant expiresAt) {
+    UserInfo user = new UserInfo();
+    user.setUserId(userId);
+    user.setAccessTokenExpiresAt(expiresAt);
+    return user;
+  }
+}
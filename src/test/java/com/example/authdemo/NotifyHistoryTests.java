@@ -0,0 +1,111 @@
+package com.example.authdemo;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NotifyHistoryTests {
+
+  private Instant now = Instant.parse("2022-10-01T00:00:00Z");
+
+  private final NotifyHistory history = new NotifyHistory(24, 100, 2, () -> now);
+
+  @Test
+  void pagingBySinceReturnsEveryEntryOnce() {
+    // Several ticks on each clock reading, and one from a clock that stepped back.
+    for (int i = 0; i < 50; i++) {
+      if (i % 4 == 0) {
+        now = now.plusMillis(1);
+      }
+      if (i == 30) {
+        now = now.minusSeconds(1);
+      }
+      history.record(tick(i));
+    }
+
+    List<NotifyHistoryEntry> seen = new ArrayList<>();
+    Instant since = Instant.EPOCH;
+    List<NotifyHistoryEntry> page;
+    while (!(page = history.find(since, 3)).isEmpty()) {
+      seen.addAll(page);
+      since = page.get(page.size() - 1).time();
+    }
+
+    assertEquals(50, seen.size());
+    for (int i = 0; i < seen.size(); i++) {
+      assertEquals(i, seen.get(i).sent());
+      if (i > 0) {
+        assertTrue(seen.get(i).time().isAfter(seen.get(i - 1).time()));
+      }
+    }
+  }
+
+  @Test
+  void sinceIsExclusive() {
+    history.record(tick(0));
+    history.record(tick(1));
+    Instant first = history.find(null, 2).get(0).time();
+
+    List<NotifyHistoryEntry> after = history.find(first, 10);
+    assertEquals(1, after.size());
+    assertEquals(1, after.get(0).sent());
+  }
+
+  @Test
+  void withoutSinceReturnsTheMostRecentOldestFirst() {
+    for (int i = 0; i < 5; i++) {
+      history.record(tick(i));
+    }
+    List<NotifyHistoryEntry> latest = history.find(null, 2);
+    assertEquals(2, latest.size());
+    assertEquals(3, latest.get(0).sent());
+    assertEquals(4, latest.get(1).sent());
+  }
+
+  @Test
+  void fullRingDropsTheOldest() {
+    NotifyHistory small = new NotifyHistory(24, 3, 2, () -> now);
+    for (int i = 0; i < 5; i++) {
+      small.record(tick(i));
+    }
+    assertEquals(3, small.size());
+    List<NotifyHistoryEntry> all = small.find(Instant.EPOCH, 10);
+    assertEquals(List.of(2L, 3L, 4L), all.stream().map(NotifyHistoryEntry::sent).toList());
+  }
+
+  @Test
+  void entriesPastRetentionAreDropped() {
+    history.record(tick(0));
+    now = now.plus(Duration.ofHours(24));
+    history.record(tick(1));
+    List<NotifyHistoryEntry> all = history.find(null, 10);
+    assertEquals(1, all.size());
+    assertEquals(1, all.get(0).sent());
+  }
+
+  @Test
+  void recipientsAreCappedButSentIsNot() {
+    history.record(tick(3));
+    NotifyHistoryEntry entry = history.find(null, 1).get(0);
+    assertEquals(3, entry.sent());
+    assertEquals(List.of("user0", "user1"), entry.recipients());
+  }
+
+  // A tick that sent to n users.
+  private static DispatchResult tick(int n) {
+    List<DispatchResult.UserResult> results = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      UserInfo user = new UserInfo();
+      user.setUserId("U" + i);
+      user.setDisplayName("user" + i);
+      results.add(new DispatchResult.UserResult(user, NotifyOutcome.SENT));
+    }
+    return new DispatchResult(results, Duration.ofMillis(5));
+  }
+}
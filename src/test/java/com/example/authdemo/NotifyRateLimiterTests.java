@@ -0,0 +1,84 @@
+package com.example.authdemo;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpHeaders;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NotifyRateLimiterTests {
+
+  private Instant now = Instant.ofEpochSecond(1_700_000_000L);
+
+  private final NotifyRateLimiter limiter = new NotifyRateLimiter(60, () -> now);
+
+  @Test
+  void unknownTokenIsNotLimited() {
+    assertTrue(limiter.tryAcquire("t"));
+    assertEquals(now, limiter.nextSendAt("t"));
+  }
+
+  @Test
+  void spendsTheRemainingSendsUntilTheReset() {
+    long reset = now.getEpochSecond() + 30;
+    limiter.update("t", 200, headers(2, reset));
+
+    assertTrue(limiter.tryAcquire("t"));
+    assertEquals(now, limiter.nextSendAt("t"));
+    assertTrue(limiter.tryAcquire("t"));
+    assertFalse(limiter.tryAcquire("t"));
+    assertEquals(Instant.ofEpochSecond(reset), limiter.nextSendAt("t"));
+    assertEquals(1, limiter.getDeferredCount());
+
+    now = Instant.ofEpochSecond(reset);
+    assertTrue(limiter.tryAcquire("t"));
+    assertEquals(now, limiter.nextSendAt("t"));
+  }
+
+  @Test
+  void throttledTokenWaitsForTheReset() {
+    long reset = now.getEpochSecond() + 120;
+    limiter.update("t", 429, headers(5, reset));
+
+    assertFalse(limiter.tryAcquire("t"));
+    assertEquals(Instant.ofEpochSecond(reset), limiter.nextSendAt("t"));
+  }
+
+  @Test
+  void throttledTokenWithoutAUsableResetBacksOff() {
+    limiter.update("a", 429, HttpHeaders.of(Map.of(), (name, value) -> true));
+    assertEquals(now.plusSeconds(60), limiter.nextSendAt("a"));
+
+    limiter.update("b", 429, headers(0, now.getEpochSecond() - 5));
+    assertEquals(now.plusSeconds(60), limiter.nextSendAt("b"));
+    assertFalse(limiter.tryAcquire("b"));
+  }
+
+  @Test
+  void responseWithoutHeadersLeavesTheBucketAlone() {
+    limiter.update("t", 200, headers(0, now.getEpochSecond() + 30));
+    limiter.update("t", 200, HttpHeaders.of(Map.of(), (name, value) -> true));
+    assertFalse(limiter.tryAcquire("t"));
+  }
+
+  @Test
+  void replacedBotTokenIsForgotten() {
+    limiter.update("old", 429, headers(0, now.getEpochSecond() + 120));
+    limiter.onUserEvent(new UserEvent(UserEvent.Type.BOT_SUBSCRIBED, "U1", "old", now));
+    assertTrue(limiter.tryAcquire("old"));
+  }
+
+  private static HttpHeaders headers(long remaining, long reset) {
+    Map<String, List<String>> map = new HashMap<>();
+    map.put("X-RateLimit-Limit", List.of("1000"));
+    map.put("X-RateLimit-Remaining", List.of(String.valueOf(remaining)));
+    map.put("X-RateLimit-Reset", List.of(String.valueOf(reset)));
+    return HttpHeaders.of(map, (name, value) -> true);
+  }
+}
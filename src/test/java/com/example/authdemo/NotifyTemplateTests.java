@@ -0,0 +1,79 @@
+package com.example.authdemo;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class NotifyTemplateTests {
+
+  @Test
+  void rendersPlaceholdersEncoded() {
+    NotifyTemplate template = NotifyTemplate.compile("Hi {displayName} ({userId}) & bye");
+    String body = template.render(user("U1", "A&B=C+D \u96ea"));
+    assertEquals("message=" + URLEncoder.encode("Hi A&B=C+D \u96ea (U1) & bye", StandardCharsets.UTF_8), body);
+    assertEquals("Hi A&B=C+D \u96ea (U1) & bye", message(body));
+  }
+
+  @Test
+  void missingValueRendersEmpty() {
+    NotifyTemplate template = NotifyTemplate.compile("Hi {displayName}!");
+    assertEquals("Hi !", message(template.render(user("U1", null))));
+  }
+
+  @Test
+  void unclosedBraceIsText() {
+    NotifyTemplate template = NotifyTemplate.compile("{userId} {not closed");
+    assertEquals("U1 {not closed", message(template.render(user("U1", "n"))));
+  }
+
+  @Test
+  void rejectsUnknownPlaceholdersAndEmptyMessages() {
+    assertThrows(IllegalArgumentException.class, () -> NotifyTemplate.compile("Hi {name}"));
+    assertThrows(IllegalArgumentException.class, () -> NotifyTemplate.compile(" "));
+    assertThrows(IllegalArgumentException.class, () -> NotifyTemplate.compile(null));
+  }
+
+  @Test
+  void limitCountsTheTextOutsidePlaceholders() {
+    String text = "x".repeat(NotifyTemplate.MAX_LENGTH);
+    NotifyTemplate.compile(text + "{displayName}");
+    assertThrows(IllegalArgumentException.class, () -> NotifyTemplate.compile(text + "y"));
+  }
+
+  @Test
+  void renderedMessageNeverExceedsTheLimit() {
+    NotifyTemplate template = NotifyTemplate.compile("x".repeat(990) + "{displayName}{userId}");
+    String rendered = message(template.render(user("U1234567890", "n".repeat(50))));
+    assertEquals(NotifyTemplate.MAX_LENGTH, rendered.length());
+    assertEquals("x".repeat(990) + "n".repeat(10), rendered);
+  }
+
+  @Test
+  void truncationKeepsSurrogatePairsWhole() {
+    NotifyTemplate template = NotifyTemplate.compile("x".repeat(NotifyTemplate.MAX_LENGTH - 1) + "{displayName}");
+    String rendered = message(template.render(user("U1", "\ud83d\ude00!")));
+    assertEquals("x".repeat(NotifyTemplate.MAX_LENGTH - 1), rendered);
+  }
+
+  @Test
+  void literalIsSentAsIs() {
+    assertEquals("{userId} & more", message(NotifyTemplate.literal("{userId} & more").render(user("U1", "n"))));
+  }
+
+  private static UserInfo user(String userId, String displayName) {
+    UserInfo user = new UserInfo();
+    user.setUserId(userId);
+    user.setDisplayName(displayName);
+    return user;
+  }
+
+  private static String message(String formBody) {
+    assertEquals("message=", formBody.substring(0, "message=".length()));
+    return URLDecoder.decode(formBody.substring("message=".length()), StandardCharsets.UTF_8);
+  }
+}
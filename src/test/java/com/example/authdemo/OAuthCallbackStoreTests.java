@@ -0,0 +1,144 @@
+package com.example.authdemo;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OAuthCallbackStoreTests {
+
+  private static final byte[] SECRET = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+
+  private long now = 1_700_000_000_000L;
+
+  private final OAuthStateStore stateStore = new InMemoryOAuthStateStore(Duration.ofMinutes(1), 100);
+
+  private final OAuthCallbackStore store = newStore(SECRET);
+
+  @Test
+  void issuedStatePassesFromTheSameBrowser() {
+    String state = store.issueState(OAuthCallbackStore.Flow.BOT, "U1");
+    OAuthCallbackStore.IssuedState issued = validate(store, OAuthCallbackStore.Flow.BOT, state, "code");
+    assertNotNull(issued);
+    assertEquals("U1", issued.getUserId());
+  }
+
+  @Test
+  void stateIssuedByAnotherNodePasses() {
+    // Another node, or this one after a restart: same key, same state store.
+    String state = newStore(SECRET).issueState(OAuthCallbackStore.Flow.LOGIN, null);
+    assertNotNull(validate(store, OAuthCallbackStore.Flow.LOGIN, state, "code"));
+  }
+
+  @Test
+  void stateSignedWithAnotherKeyIsRejected() {
+    byte[] other = "fedcba9876543210fedcba9876543210".getBytes(StandardCharsets.UTF_8);
+    String state = newStore(other).issueState(OAuthCallbackStore.Flow.LOGIN, null);
+    assertNull(validate(store, OAuthCallbackStore.Flow.LOGIN, state, "code"));
+  }
+
+  @Test
+  void forgedStateIsRejected() {
+    String state = store.issueState(OAuthCallbackStore.Flow.LOGIN, null);
+    String nonce = OAuthCallbackStore.browserNonce(state);
+    String forged = nonce + ".AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+    assertNull(store.validateState(OAuthCallbackStore.Flow.LOGIN, forged, "code", nonce));
+    assertNull(store.validateState(OAuthCallbackStore.Flow.LOGIN, nonce, "code", nonce));
+    assertNull(store.validateState(OAuthCallbackStore.Flow.LOGIN, "not a state", "code", "not a state"));
+
+    // The login state's payload swapped into a bot state of the same browser keeps the bot MAC.
+    String bot = store.issueState(OAuthCallbackStore.Flow.BOT, "U1");
+    String[] loginParts = state.split("\\.");
+    String[] botParts = bot.split("\\.");
+    String swapped = loginParts[0] + "." + botParts[1] + "." + loginParts[2];
+    assertNull(store.validateState(OAuthCallbackStore.Flow.BOT, swapped, "code", nonce));
+  }
+
+  @Test
+  void stateFromAnotherBrowserIsRejected() {
+    String state = store.issueState(OAuthCallbackStore.Flow.LOGIN, null);
+    String otherBrowser = OAuthCallbackStore.browserNonce(store.issueState(OAuthCallbackStore.Flow.LOGIN, null));
+    assertNull(store.validateState(OAuthCallbackStore.Flow.LOGIN, state, "code", otherBrowser));
+    assertNull(store.validateState(OAuthCallbackStore.Flow.LOGIN, state, "code", null));
+  }
+
+  @Test
+  void expiredStateIsRejected() {
+    String state = store.issueState(OAuthCallbackStore.Flow.LOGIN, null);
+    now += Duration.ofMinutes(1).toMillis();
+    assertNull(validate(store, OAuthCallbackStore.Flow.LOGIN, state, "code"));
+  }
+
+  @Test
+  void stateIsRejectedForTheOtherFlow() {
+    String state = store.issueState(OAuthCallbackStore.Flow.LOGIN, null);
+    assertNull(validate(store, OAuthCallbackStore.Flow.BOT, state, "code"));
+  }
+
+  @Test
+  void stateIsBoundToTheFirstCode() {
+    String state = store.issueState(OAuthCallbackStore.Flow.LOGIN, null);
+    assertNotNull(validate(store, OAuthCallbackStore.Flow.LOGIN, state, "first"));
+    assertNull(validate(store, OAuthCallbackStore.Flow.LOGIN, state, "second"));
+    // A repeat callback with the same code still passes, on any node.
+    assertNotNull(validate(newStore(SECRET), OAuthCallbackStore.Flow.LOGIN, state, "first"));
+  }
+
+  @Test
+  void duplicateExchangeFailsInsteadOfReplayingTheFirstResponse() {
+    CompletableFuture<String> first = store.exchangeOnce(OAuthCallbackStore.Flow.LOGIN, "code",
+        () -> CompletableFuture.completedFuture("session cookie"));
+    assertEquals("session cookie", first.join());
+
+    CompletableFuture<String> second = store.exchangeOnce(OAuthCallbackStore.Flow.LOGIN, "code",
+        () -> CompletableFuture.completedFuture("second exchange"));
+    ExecutionException e = assertThrows(ExecutionException.class, second::get);
+    assertInstanceOf(OAuthCallbackStore.DuplicateCallbackException.class, e.getCause());
+  }
+
+  @Test
+  void failedExchangeCanBeRetried() {
+    CompletableFuture<String> first = store.exchangeOnce(OAuthCallbackStore.Flow.BOT, "code",
+        () -> CompletableFuture.failedFuture(new java.io.IOException("connection reset")));
+    assertThrows(ExecutionException.class, first::get);
+
+    CompletableFuture<String> retry = store.exchangeOnce(OAuthCallbackStore.Flow.BOT, "code",
+        () -> CompletableFuture.completedFuture("ok"));
+    assertEquals("ok", retry.join());
+  }
+
+  @Test
+  void sessionNamesItsUserUntilItExpires() {
+    String session = store.issueSession("U1");
+    assertEquals("U1", store.sessionUser(session));
+    assertEquals("U1", newStore(SECRET).sessionUser(session));
+
+    now += Duration.ofHours(1).toMillis();
+    assertNull(store.sessionUser(session));
+  }
+
+  @Test
+  void alteredSessionIsRejected() {
+    String session = store.issueSession("U1");
+    assertNull(store.sessionUser("U2" + session.substring(2)));
+    assertNull(store.sessionUser(session.substring(0, session.lastIndexOf('.'))));
+    assertNull(store.sessionUser(null));
+  }
+
+  private OAuthCallbackStore newStore(byte[] secret) {
+    return new OAuthCallbackStore(stateStore, 60000, 100, Duration.ofHours(1), secret, () -> now);
+  }
+
+  private static OAuthCallbackStore.IssuedState validate(OAuthCallbackStore store, OAuthCallbackStore.Flow flow,
+                                                         String state, String code) {
+    return store.validateState(flow, state, code, OAuthCallbackStore.browserNonce(state));
+  }
+}
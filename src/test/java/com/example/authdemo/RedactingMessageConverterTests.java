@@ -0,0 +1,62 @@
+package com.example.authdemo;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RedactingMessageConverterTests {
+
+  @Test
+  void masksTokensInJsonBodies() {
+    String body = "{\"access_token\":\"at-1\",\"expires_in\":2592000,\"id_token\" : \"eyJ.a.b\","
+        + "\"refresh_token\":\"rt-1\",\"scope\":\"profile openid\",\"token_type\":\"Bearer\"}";
+    assertEquals("{\"access_token\":\"***\",\"expires_in\":2592000,\"id_token\":\"***\","
+        + "\"refresh_token\":\"***\",\"scope\":\"profile openid\",\"token_type\":\"Bearer\"}",
+        RedactingMessageConverter.redact(body));
+  }
+
+  @Test
+  void masksSecretsInFormBodies() {
+    String form = "grant_type=authorization_code&code=c-1&redirect_uri=https%3A%2F%2Fexample.com"
+        + "&client_id=1000&client_secret=s3cret";
+    assertEquals("grant_type=authorization_code&code=***&redirect_uri=https%3A%2F%2Fexample.com"
+        + "&client_id=1000&client_secret=***", RedactingMessageConverter.redact(form));
+    assertEquals("refresh with refresh_token=*** failed",
+        RedactingMessageConverter.redact("refresh with refresh_token=rt-1 failed"));
+  }
+
+  @Test
+  void masksBearerCredentials() {
+    assertEquals("Authorization: Bearer ***", RedactingMessageConverter.redact("Authorization: Bearer bot-1"));
+    assertEquals("headers={Authorization=[Bearer ***], Accept=[*/*]}",
+        RedactingMessageConverter.redact("headers={Authorization=[Bearer at-1], Accept=[*/*]}"));
+  }
+
+  @Test
+  void masksTokensInRecordToStrings() {
+    LineTokenResponse response = new LineTokenResponse("at-1", 2592000, "eyJ.a.b", "rt-1", "profile", "Bearer");
+    String redacted = RedactingMessageConverter.redact("token response " + response);
+    assertEquals("token response LineTokenResponse[accessToken=***, expiresIn=2592000, idToken=***, "
+        + "refreshToken=***, scope=profile, tokenType=Bearer]", redacted);
+    assertFalse(redacted.contains("at-1") || redacted.contains("eyJ") || redacted.contains("rt-1"));
+  }
+
+  @Test
+  void keepsTrueFalseAndNullFlags() {
+    String user = "UserInfo(userId=U1, displayName=Sim, idToken=true, accessToken=false, "
+        + "refreshToken=null, botAccessToken=true, notifyRevoked=false)";
+    assertEquals(user, RedactingMessageConverter.redact(user));
+    assertTrue(RedactingMessageConverter.redact("botAccessToken=trueish").endsWith("=***"));
+  }
+
+  @Test
+  void leavesOtherLinesAlone() {
+    String line = "notify tick: 10 users in 5 ms";
+    assertSame(line, RedactingMessageConverter.redact(line));
+    assertNull(RedactingMessageConverter.redact(null));
+  }
+}
@@ -0,0 +1,138 @@
+package com.example.authdemo;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenVerificationCacheTests {
+
+  private final AtomicInteger loads = new AtomicInteger();
+
+  @Test
+  void validResultIsAnsweredLocallyUntilTheRefreshMargin() throws Exception {
+    TokenVerificationCache cache = new TokenVerificationCache(3600, 30);
+    TokenVerification verification = cache.get("t", counted(TokenVerification.valid(7200)));
+    assertSame(verification, cache.get("t", counted(TokenVerification.valid(7200))));
+    assertEquals(1, loads.get());
+
+    // Already inside the margin: every lookup goes upstream.
+    cache.get("near", counted(TokenVerification.valid(1800)));
+    cache.get("near", counted(TokenVerification.valid(1800)));
+    assertEquals(3, loads.get());
+  }
+
+  @Test
+  void negativeResultIsKeptForItsTtl() throws Exception {
+    TokenVerificationCache cache = new TokenVerificationCache(3600, 30);
+    cache.get("t", counted(TokenVerification.expired()));
+    cache.get("t", counted(TokenVerification.expired()));
+    assertEquals(1, loads.get());
+
+    TokenVerificationCache uncached = new TokenVerificationCache(3600, 0);
+    uncached.get("t", counted(TokenVerification.expired()));
+    uncached.get("t", counted(TokenVerification.expired()));
+    assertEquals(3, loads.get());
+  }
+
+  @Test
+  void concurrentLookupsShareOneCall() throws Exception {
+    // Nothing is cached, so a single load proves the second lookup waited for the first.
+    TokenVerificationCache cache = new TokenVerificationCache(3600, 0);
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    TokenVerification result = TokenVerification.invalid();
+
+    CompletableFuture<TokenVerification> first = CompletableFuture.supplyAsync(() -> get(cache, () -> {
+      loads.incrementAndGet();
+      entered.countDown();
+      release.await();
+      return result;
+    }));
+    assertTrue(entered.await(5, TimeUnit.SECONDS));
+    Thread[] waiter = new Thread[1];
+    CompletableFuture<TokenVerification> second = CompletableFuture.supplyAsync(() -> {
+      waiter[0] = Thread.currentThread();
+      return get(cache, counted(TokenVerification.valid(7200)));
+    });
+    awaitWaiting(waiter);
+    release.countDown();
+
+    assertSame(result, first.get(5, TimeUnit.SECONDS));
+    assertSame(result, second.get(5, TimeUnit.SECONDS));
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  void failedLoadFailsItsWaitersAndIsNotCached() throws Exception {
+    TokenVerificationCache cache = new TokenVerificationCache(3600, 30);
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    CompletableFuture<TokenVerification> first = CompletableFuture.supplyAsync(() -> get(cache, () -> {
+      loads.incrementAndGet();
+      entered.countDown();
+      release.await();
+      throw new IOException("connection reset");
+    }));
+    assertTrue(entered.await(5, TimeUnit.SECONDS));
+    Thread[] waiter = new Thread[1];
+    CompletableFuture<TokenVerification> second = CompletableFuture.supplyAsync(() -> {
+      waiter[0] = Thread.currentThread();
+      return get(cache, counted(TokenVerification.valid(7200)));
+    });
+    awaitWaiting(waiter);
+    release.countDown();
+
+    assertInstanceOf(IOException.class, assertThrows(ExecutionException.class, first::get).getCause().getCause());
+    assertInstanceOf(IOException.class, assertThrows(ExecutionException.class, second::get).getCause().getCause());
+
+    // The next lookup goes upstream again.
+    cache.get("t", counted(TokenVerification.valid(7200)));
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  void refreshedTokenIsForgotten() throws Exception {
+    TokenVerificationCache cache = new TokenVerificationCache(3600, 30);
+    cache.get("t", counted(TokenVerification.valid(7200)));
+    cache.onUserEvent(new UserEvent(UserEvent.Type.TOKEN_REFRESHED, "U1", "t", Instant.now()));
+    cache.get("t", counted(TokenVerification.valid(7200)));
+    assertEquals(2, loads.get());
+  }
+
+  private TokenVerificationCache.Loader counted(TokenVerification result) {
+    return () -> {
+      loads.incrementAndGet();
+      return result;
+    };
+  }
+
+  private static TokenVerification get(TokenVerificationCache cache, TokenVerificationCache.Loader loader) {
+    try {
+      return cache.get("t", loader);
+    } catch (IOException | InterruptedException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // Until the second lookup is parked on the first one's result.
+  private static void awaitWaiting(Thread[] waiter) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (waiter[0] == null || waiter[0].getState() != Thread.State.WAITING) {
+      assertTrue(System.nanoTime() < deadline);
+      Thread.sleep(1);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+#!/bin/bash
+#
+# Compares startup time and resident memory of the ways to run the backend:
+#   jar     the boot jar
+#   lazy    the boot jar with the lazy profile
+#   cds     the plain jar and dependencies with the AppCDS archive, lazy profile
+#   native  the GraalVM native image, lazy profile
+# Build what you want to compare first:
+#   ./gradlew bootJar cdsArchive
+#   ./gradlew -Pnative nativeCompile
+# Modes whose artifacts are missing are skipped.
+#
+# Usage: ./startup-bench.sh [runs] [idle_seconds]
+
+RUNS=${1:-5}
+IDLE=${2:-15}
+APP_ARGS="--server.port=0 --spring.datasource.url=jdbc:h2:mem:bench --user_store.type=memory"
+BOOT_JAR=$(ls build/libs/*.jar 2>/dev/null | grep -v -- '-plain.jar' | head -1)
+NATIVE=build/native/nativeCompile/auth-demo
+
+rss_mb() {
+  awk '/VmRSS/ { printf "%.0f", $2 / 1024 }' "/proc/$1/status"
+}
+
+# Prints "<startup seconds> <rss after start MB> <rss after idle MB>" for one run.
+run_once() {
+  local log
+  log=$(mktemp)
+  "$@" $APP_ARGS > "$log" 2>&1 &
+  local pid=$!
+  for _ in $(seq 1 600); do
+    grep -q "Started AuthDemoApplication" "$log" && break
+    kill -0 $pid 2>/dev/null || break
+    sleep 0.1
+  done
+  local started
+  started=$(grep -o "Started AuthDemoApplication in [0-9.]*" "$log" | awk '{ print $4 }')
+  if [ -z "$started" ]; then
+    echo "failed to start: $*" >&2
+    tail -20 "$log" >&2
+    kill $pid 2>/dev/null
+    rm -f "$log"
+    return 1
+  fi
+  local rss_start
+  rss_start=$(rss_mb $pid)
+  # Covers at least one notify tick.
+  sleep "$IDLE"
+  local rss_idle
+  rss_idle=$(rss_mb $pid)
+  kill $pid
+  wait $pid 2>/dev/null
+  rm -f "$log"
+  echo "$started $rss_start $rss_idle"
+}
+
+bench() {
+  local mode=$1
+  shift
+  local results=()
+  for _ in $(seq 1 "$RUNS"); do
+    results+=("$(run_once "$@")") || return
+  done
+  printf '%s\n' "${results[@]}" | awk -v mode="$mode" '
+    { s += $1; r += $2; i += $3; n++ }
+    END { printf "%-8s %10.2f %14.0f %14.0f\n", mode, s / n, r / n, i / n }'
+}
+
+printf "%-8s %10s %14s %14s\n" mode startup_s rss_start_mb rss_idle_mb
+if [ -n "$BOOT_JAR" ]; then
+  bench jar java -jar "$BOOT_JAR"
+  bench lazy java -jar "$BOOT_JAR" --spring.profiles.active=lazy
+fi
+if [ -f build/cds/app.jsa ]; then
+  bench cds java -XX:SharedArchiveFile=build/cds/app.jsa @build/cds/classpath.args \
+    com.example.authdemo.AuthDemoApplication --spring.profiles.active=lazy
+fi
+if [ -x "$NATIVE" ]; then
+  bench native "$NATIVE" --spring.profiles.active=lazy
+fi